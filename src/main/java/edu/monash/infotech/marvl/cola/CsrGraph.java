@@ -0,0 +1,66 @@
+package edu.monash.infotech.marvl.cola;
+
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * An undirected graph in compressed sparse row form.  The neighbours of node u are targets[offsets[u]] .. targets[offsets[u + 1] - 1],
+ * each with the weight of the link it comes from and the index of that link in the list the graph was built from.  Each link appears
+ * in the rows of both its ends, and a node's neighbours are in the order of the links.
+ * <p/>
+ * The graph is not modified after construction, so it can be shared between threads.
+ */
+public class CsrGraph {
+
+    public final int      n;
+    public final int[]    offsets;
+    public final int[]    targets;
+    public final double[] weights;
+    public final int[]    edges;
+
+    /**
+     * @param n              number of nodes
+     * @param links          the links, each joining two nodes in [0, n)
+     * @param getSourceIndex function to get the index of the source node of a link
+     * @param getTargetIndex function to get the index of the target node of a link
+     * @param getWeight      function to get the weight (length) of a link
+     */
+    public <T> CsrGraph(final int n, final List<T> links, final ToIntFunction<T> getSourceIndex, final ToIntFunction<T> getTargetIndex,
+                        final ToDoubleFunction<T> getWeight)
+    {
+        this.n = n;
+        final int m = links.size();
+        final int[] sources = new int[m], targets = new int[m];
+        this.offsets = new int[n + 1];
+        for (int e = 0; e < m; ++e) {
+            final T l = links.get(e);
+            ++this.offsets[(sources[e] = getSourceIndex.applyAsInt(l)) + 1];
+            ++this.offsets[(targets[e] = getTargetIndex.applyAsInt(l)) + 1];
+        }
+        for (int u = 0; u < n; ++u) {
+            this.offsets[u + 1] += this.offsets[u];
+        }
+        this.targets = new int[2 * m];
+        this.weights = new double[2 * m];
+        this.edges = new int[2 * m];
+        final int[] fill = new int[n];
+        System.arraycopy(this.offsets, 0, fill, 0, n);
+        for (int e = 0; e < m; ++e) {
+            final double w = getWeight.applyAsDouble(links.get(e));
+            final int u = sources[e], v = targets[e];
+            int i = fill[u]++;
+            this.targets[i] = v;
+            this.weights[i] = w;
+            this.edges[i] = e;
+            i = fill[v]++;
+            this.targets[i] = u;
+            this.weights[i] = w;
+            this.edges[i] = e;
+        }
+    }
+
+    public int degree(final int u) {
+        return this.offsets[u + 1] - this.offsets[u];
+    }
+}
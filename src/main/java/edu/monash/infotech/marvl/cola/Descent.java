@@ -4,6 +4,7 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.BiConsumer;
 import java.util.function.ToDoubleBiFunction;
 
@@ -20,8 +21,15 @@ import java.util.function.ToDoubleBiFunction;
 public class Descent {
 
     public double threshold = 0.0001;
-    /** Hessian Matrix */
+    /** Hessian Matrix, null in matrix-free mode */
     public double[][][] H;
+    /** diagonal of the Hessian, only used in matrix-free mode */
+    public double[][]   Hdiag;
+    /**
+     * if true, only the diagonal of the Hessian is stored and computeStepSize computes H.d on the fly from the pair terms, so memory is
+     * O(k.n) rather than O(k.n^2)
+     */
+    public final boolean matrixFree;
     /** gradient vector */
     public double[][]   g;
     /** positions vector */
@@ -33,10 +41,10 @@ public class Descent {
 
     public Locks locks;
 
-    private double minD;
+    protected double minD;
 
     // pool of arrays of size n used internally, allocated in constructor
-    private double[][] Hd;
+    protected double[][] Hd;
     private double[][] a;
     private double[][] b;
     private double[][] c;
@@ -46,6 +54,25 @@ public class Descent {
     private double[][] ib;
     private double[][] xtmp;
 
+    // positions passed to the last computeDerivatives call, needed to recompute the Hessian in matrix-free mode
+    protected double[][] xDerivatives;
+    // in sequential matrix-free mode, the positions at the start of the last computeDerivatives call and the coincident nodes it moved
+    // apart, row by row, so that each row of the Hessian can be recomputed at the positions the row was first computed with
+    private double[][] xStart;
+    private double[][] xReplay;
+    private int        displaced;
+    private int[]      displacedRow  = new int[0];
+    private int[]      displacedNode = new int[0];
+    private double[]   displacement  = new double[0];
+    // per-row results of parallel loops, allocated on first use
+    private double[]   rowValues;
+
+    /**
+     * if set, the per-row work of computeDerivatives, computeStepSize and computeStress is split across this pool. Reductions over rows
+     * are done in row order so results do not depend on the number of threads.
+     */
+    public ForkJoinPool pool = null;
+
 
     // Parameters for grid snap stress.
     // TODO: Make a pluggable "StressTerm" class instead of this
@@ -56,6 +83,8 @@ public class Descent {
     public boolean scaleSnapByMaxH  = false;
 
     private PseudoRandom random = new PseudoRandom();
+    // stream of each worker thread for the offsets of coincident pairs, reseeded for every pair
+    private static final ThreadLocal<PseudoRandom> pairRandom = ThreadLocal.withInitial(PseudoRandom::new);
 
     public List<TriConsumer<double[], double[], double[]>> project = null;
 
@@ -75,12 +104,25 @@ public class Descent {
      *          separation between i and j to the goal function
      */
     public Descent(final double[][] x, final double[][] D, final double[][] G) {
+        this(x, D, G, false);
+    }
+
+    /**
+     * @param matrixFree if true, the off-diagonal entries of the Hessian are never stored but recomputed when they are needed, see
+     *                   computeStepSize. Results are identical to the default mode.
+     */
+    public Descent(final double[][] x, final double[][] D, final double[][] G, final boolean matrixFree) {
         this.x = x;
         this.D = D;
         this.G = G;
         this.k = x.length; // dimensionality
         int n = this.n = x[0].length; // number of nodes
-        this.H = new double[this.k][0][0];
+        this.matrixFree = matrixFree;
+        if (matrixFree) {
+            this.Hdiag = new double[this.k][0];
+        } else {
+            this.H = new double[this.k][0][0];
+        }
         this.g = new double[this.k][0];
         this.Hd = new double[this.k][0];
         this.a = new double[this.k][0];
@@ -93,7 +135,7 @@ public class Descent {
         this.xtmp = new double[this.k][0];
         this.locks = new Locks();
         this.minD = Double.MAX_VALUE;
-        int i = n, j;
+        int i = null != D ? n : 0, j;
         while (0 < i--) {
             j = n;
             while (--j > i) {
@@ -109,10 +151,14 @@ public class Descent {
         i = this.k;
         while (0 < i--) {
             this.g[i] = new double[n];
-            this.H[i] = new double[n][0];
-            j = n;
-            while (0 < j--) {
-                this.H[i][j] = new double[n];
+            if (matrixFree) {
+                this.Hdiag[i] = new double[n];
+            } else {
+                this.H[i] = new double[n][0];
+                j = n;
+                while (0 < j--) {
+                    this.H[i][j] = new double[n];
+                }
             }
             this.Hd[i] = new double[n];
             this.a[i] = new double[n];
@@ -138,80 +184,131 @@ public class Descent {
     }
 
     private double[] offsetDir() {
-        final double[] u = new double[this.k];
+        return this.offsetDir(this.random);
+    }
+
+    private double[] offsetDir(final PseudoRandom random) {
+        return this.offsetDir(random, new double[this.k]);
+    }
+
+    // fill u with a random direction of length minD
+    private double[] offsetDir(final PseudoRandom random, final double[] u) {
         double l = 0;
         for (int i = 0; i < this.k; ++i) {
-            final double r = this.random.getNextBetween(0.01, 1) - 0.5;
+            final double r = random.getNextBetween(0.01, 1) - 0.5;
             u[i] = r;
             l += r * r;
         }
         final double l2 = Math.sqrt(l);
-        return Arrays.stream(u).map(x -> {x *= minD / l2; return x;}).toArray();
+        for (int i = 0; i < this.k; ++i) {
+            u[i] *= minD / l2;
+        }
+        return u;
+    }
+
+    // In parallel mode nodes at identical positions are not moved (rows are computed concurrently), instead the pair
+    // is treated as if separated by a small offset drawn from a random stream seeded by the pair itself, so that
+    // results do not depend on scheduling.  The offset is antisymmetric so rows u and v see opposite directions.
+    private double coincidentSeparation(final int u, final int v, final double[] d, final double[] d2) {
+        final PseudoRandom random = Descent.pairRandom.get();
+        random.setSeed((long)Math.min(u, v) * this.n + Math.max(u, v) + 1);
+        this.offsetDir(random, d);
+        double sd2 = 0;
+        for (int i = 0; i < this.k; ++i) {
+            double dx = d[i] = u < v ? d[i] : -d[i];
+            sd2 += d2[i] = dx * dx;
+        }
+        return sd2;
     }
 
-    // compute first and second derivative information storing results in this.g and this.H
+    // squared distance between nodes u and v in x, with the per-dimension differences stored in d and their squares in d2.
+    // If displace is true, nodes at identical positions are first randomly moved apart.  In parallel mode nodes are
+    // never moved, a virtual separation is used for coincident pairs instead.
+    protected double separation(final double[][] x, final int u, final int v, final double[] d, final double[] d2,
+                                final boolean displace)
+    {
+        int i;
+        double sd2 = 0;
+        if (null == this.pool && displace) {
+            // The following loop randomly displaces nodes that are at identical positions
+            int maxDisplaces = this.n; // avoid infinite loop in the case of numerical issues, such as huge values
+            while (0 < maxDisplaces--) {
+                sd2 = 0;
+                for (i = 0; i < this.k; ++i) {
+                    double dx = d[i] = x[i][u] - x[i][v];
+                    sd2 += d2[i] = dx * dx;
+                }
+                if (1e-9 < sd2) {
+                    break;
+                }
+                double[] rd = this.offsetDir();
+                for (i = 0; i < this.k; ++i) {
+                    x[i][v] += rd[i];
+                }
+                if (this.matrixFree) {
+                    this.recordDisplacement(u, v, rd);
+                }
+            }
+            return sd2;
+        }
+        for (i = 0; i < this.k; ++i) {
+            double dx = d[i] = x[i][u] - x[i][v];
+            sd2 += d2[i] = dx * dx;
+        }
+        if (null != this.pool && 1e-9 >= sd2) {
+            sd2 = this.coincidentSeparation(u, v, d, d2);
+        }
+        return sd2;
+    }
+
+    private void recordDisplacement(final int u, final int v, final double[] rd) {
+        if (this.displaced == this.displacedRow.length) {
+            final int c = Math.max(16, 2 * this.displaced);
+            this.displacedRow = Arrays.copyOf(this.displacedRow, c);
+            this.displacedNode = Arrays.copyOf(this.displacedNode, c);
+            this.displacement = Arrays.copyOf(this.displacement, c * this.k);
+        }
+        this.displacedRow[this.displaced] = u;
+        this.displacedNode[this.displaced] = v;
+        System.arraycopy(rd, 0, this.displacement, this.displaced * this.k, this.k);
+        ++this.displaced;
+    }
+
+    // compute first and second derivative information storing results in this.g and this.H (or this.Hdiag in matrix-free mode)
     public void computeDerivatives(double[][] x) {
         int n = this.n;
         if (1 > n) {
             return;
         }
+        this.xDerivatives = x;
+        this.displaced = 0;
+        if (this.matrixFree && null == this.pool) {
+            if (null == this.xStart) {
+                this.xStart = new double[this.k][n];
+            }
+            Descent.copy(x, this.xStart);
+        }
         int i;
-        double[] d = new double[this.k];
-        double[] d2 = new double[this.k];
-        double[] Huu = new double[this.k];
         double maxH = 0;
-        for (int u = 0; u < n; ++u) {
-            for (i = 0; i < this.k; ++i) {
-                Huu[i] = g[i][u] = 0;
+        if (null == this.pool) {
+            double[] d = new double[this.k];
+            double[] d2 = new double[this.k];
+            double[] Huu = new double[this.k];
+            for (int u = 0; u < n; ++u) {
+                maxH = Math.max(maxH, this.computeDerivativesRow(x, u, d, d2, Huu));
             }
-            for (int v = 0; v < n; ++v) {
-                if (u == v) {
-                    continue;
-                }
-
-                // The following loop randomly displaces nodes that are at identical positions
-                int maxDisplaces = n; // avoid infinite loop in the case of numerical issues, such as huge values
-                double sd2 = 0;
-                while (0 < maxDisplaces--) {
-                    sd2 = 0;
-                    for (i = 0; i < this.k; ++i) {
-                        double dx = d[i] = x[i][u] - x[i][v];
-                        sd2 += d2[i] = dx * dx;
-                    }
-                    if (1e-9 < sd2) {
-                        break;
-                    }
-                    double[] rd = this.offsetDir();
-                    for (i = 0; i < this.k; ++i) {
-                        x[i][v] += rd[i];
-                    }
-                }
-                double l = Math.sqrt(sd2);
-                double D = this.D[u][v];
-                double weight = null != this.G ? this.G[u][v] : 1;
-                if (1 < weight && l > D || !Double.isFinite(D)) {
-                    for (i = 0; i < this.k; ++i) {
-                        this.H[i][u][v] = 0;
-                    }
-                    continue;
-                }
-                if (1 < weight) {
-                    weight = 1;
-                }
-                double D2 = D * D;
-                double gs = 2 * weight * (l - D) / (D2 * l);
-                double l3 = l * l * l;
-                double hs = 2 * -weight / (D2 * l3);
-                if (!Double.isFinite(gs)) {
-                    log.debug("computeDerivatives got infinite value for gs: " + gs);
-                }
-                for (i = 0; i < this.k; ++i) {
-                    this.g[i][u] += d[i] * gs;
-                    Huu[i] -= this.H[i][u][v] = hs * (l3 + D * (d2[i] - sd2) + l * sd2);
+        } else {
+            final double[] rowMaxH = this.rowValues();
+            RangeTask.forEach(this.pool, n, (from, to) -> {
+                double[] d = new double[this.k];
+                double[] d2 = new double[this.k];
+                double[] Huu = new double[this.k];
+                for (int u = from; u < to; ++u) {
+                    rowMaxH[u] = this.computeDerivativesRow(x, u, d, d2, Huu);
                 }
-            }
-            for (i = 0; i < this.k; ++i) {
-                maxH = Math.max(maxH, this.H[i][u][u] = Huu[i]);
+            });
+            for (int u = 0; u < n; ++u) {
+                maxH = Math.max(maxH, rowMaxH[u]);
             }
         }
         // Grid snap forces
@@ -232,10 +329,10 @@ public class Descent {
                 if (-r < dx && dx <= r) {
                     if (this.scaleSnapByMaxH) {
                         this.g[i][u] += maxH * k * dx;
-                        this.H[i][u][u] += maxH * k;
+                        this.addToDiagonal(i, u, maxH * k);
                     } else {
                         this.g[i][u] += k * dx;
-                        this.H[i][u][u] += k;
+                        this.addToDiagonal(i, u, k);
                     }
                 }
             }
@@ -244,13 +341,85 @@ public class Descent {
         if (!this.locks.isEmpty()) {
             this.locks.apply((u, p) -> {
                 for (int j = 0; j < this.k; ++j) {
-                    this.H[j][u][u] += _maxH;
+                    this.addToDiagonal(j, u, _maxH);
                     this.g[j][u] -= _maxH * (p[j] - x[j][u]);
                 }
             });
         }
     }
 
+    // compute the gradient and Hessian entries for row u, returning the largest diagonal entry of the row.
+    // d, d2 and Huu are scratch arrays of size k.
+    protected double computeDerivativesRow(final double[][] x, final int u, final double[] d, final double[] d2, final double[] Huu) {
+        final int n = this.n;
+        int i;
+        double maxH = 0;
+        for (i = 0; i < this.k; ++i) {
+            Huu[i] = this.g[i][u] = 0;
+        }
+        for (int v = 0; v < n; ++v) {
+            if (u == v) {
+                continue;
+            }
+
+            double sd2 = this.separation(x, u, v, d, d2, true);
+            double l = Math.sqrt(sd2);
+            double D = this.D[u][v];
+            double weight = null != this.G ? this.G[u][v] : 1;
+            if (1 < weight && l > D || !Double.isFinite(D)) {
+                if (!this.matrixFree) {
+                    for (i = 0; i < this.k; ++i) {
+                        this.H[i][u][v] = 0;
+                    }
+                }
+                continue;
+            }
+            if (1 < weight) {
+                weight = 1;
+            }
+            double D2 = D * D;
+            double gs = 2 * weight * (l - D) / (D2 * l);
+            double l3 = l * l * l;
+            double hs = 2 * -weight / (D2 * l3);
+            if (!Double.isFinite(gs)) {
+                log.debug("computeDerivatives got infinite value for gs: " + gs);
+            }
+            for (i = 0; i < this.k; ++i) {
+                this.g[i][u] += d[i] * gs;
+                final double Huv = hs * (l3 + D * (d2[i] - sd2) + l * sd2);
+                if (!this.matrixFree) {
+                    this.H[i][u][v] = Huv;
+                }
+                Huu[i] -= Huv;
+            }
+        }
+        for (i = 0; i < this.k; ++i) {
+            if (this.matrixFree) {
+                this.Hdiag[i][u] = Huu[i];
+            } else {
+                this.H[i][u][u] = Huu[i];
+            }
+            maxH = Math.max(maxH, Huu[i]);
+        }
+        return maxH;
+    }
+
+    // scratch array of size n for per-row results of parallel loops
+    protected double[] rowValues() {
+        if (null == this.rowValues) {
+            this.rowValues = new double[this.n];
+        }
+        return this.rowValues;
+    }
+
+    protected void addToDiagonal(final int i, final int u, final double value) {
+        if (this.matrixFree) {
+            this.Hdiag[i][u] += value;
+        } else {
+            this.H[i][u][u] += value;
+        }
+    }
+
     private static double dotProd(double[] a, double[] b) {
         double x = 0;
         int i = a.length;
@@ -268,14 +437,101 @@ public class Descent {
         }
     }
 
+    // result r = H * d, where the off-diagonal entries of H are recomputed from the pair terms at the positions
+    // of the last computeDerivatives call.  Terms are summed in the same order as rightMultiply so that the
+    // result is identical to the dense product.  If that call moved coincident nodes apart, a row may have been
+    // computed before some of the moves, so the moves are replayed from the starting positions row by row.
+    protected void hessianRightMultiply(final double[][] d, final double[][] r) {
+        if (null == this.pool) {
+            final double[] dx = new double[this.k];
+            final double[] d2 = new double[this.k];
+            double[][] x = this.xDerivatives;
+            if (0 < this.displaced) {
+                if (null == this.xReplay) {
+                    this.xReplay = new double[this.k][this.n];
+                }
+                x = this.xReplay;
+                Descent.copy(this.xStart, x);
+            }
+            int next = 0;
+            for (int u = 0; u < this.n; ++u) {
+                // a row's own moves come before its terms for the nodes moved
+                for (; next < this.displaced && this.displacedRow[next] == u; ++next) {
+                    for (int i = 0; i < this.k; ++i) {
+                        x[i][this.displacedNode[next]] += this.displacement[next * this.k + i];
+                    }
+                }
+                this.hessianRightMultiplyRow(x, u, d, r, dx, d2);
+            }
+        } else {
+            RangeTask.forEach(this.pool, this.n, (from, to) -> {
+                final double[] dx = new double[this.k];
+                final double[] d2 = new double[this.k];
+                for (int u = from; u < to; ++u) {
+                    this.hessianRightMultiplyRow(this.xDerivatives, u, d, r, dx, d2);
+                }
+            });
+        }
+    }
+
+    // row u of hessianRightMultiply, with the pair terms at positions x
+    protected void hessianRightMultiplyRow(final double[][] x, final int u, final double[][] d, final double[][] r, final double[] dx,
+                                           final double[] d2)
+    {
+        int i;
+        for (i = 0; i < this.k; ++i) {
+            r[i][u] = 0;
+        }
+        int v = this.n;
+        while (0 < v--) {
+            if (u == v) {
+                for (i = 0; i < this.k; ++i) {
+                    r[i][u] += this.Hdiag[i][u] * d[i][u];
+                }
+                continue;
+            }
+            double sd2 = this.separation(x, u, v, dx, d2, false);
+            double l = Math.sqrt(sd2);
+            double D = this.D[u][v];
+            double weight = null != this.G ? this.G[u][v] : 1;
+            if (1 < weight && l > D || !Double.isFinite(D)) {
+                continue;
+            }
+            if (1 < weight) {
+                weight = 1;
+            }
+            double D2 = D * D;
+            double l3 = l * l * l;
+            double hs = 2 * -weight / (D2 * l3);
+            for (i = 0; i < this.k; ++i) {
+                r[i][u] += hs * (l3 + D * (d2[i] - sd2) + l * sd2) * d[i][v];
+            }
+        }
+    }
+
     // computes the optimal step size to take in direction d using the
     // derivative information in this.g and this.H
     // returns the scalar multiplier to apply to d to get the optimal step
     public double computeStepSize(double[][] d) {
         double numerator = 0, denominator = 0;
+        if (this.matrixFree) {
+            this.hessianRightMultiply(d, this.Hd);
+        }
         for (int i = 0; i < this.k; ++i) {
             numerator += Descent.dotProd(this.g[i], d[i]);
-            Descent.rightMultiply(this.H[i], d[i], this.Hd[i]);
+            if (!this.matrixFree) {
+                if (null == this.pool) {
+                    Descent.rightMultiply(this.H[i], d[i], this.Hd[i]);
+                } else {
+                    final double[][] Hi = this.H[i];
+                    final double[] di = d[i], Hdi = this.Hd[i];
+                    RangeTask.forEach(this.pool, this.n, (from, to) -> {
+                        for (int u = from; u < to; ++u) {
+                            Hdi[u] = Descent.dotProd(Hi[u], di);
+                        }
+                    });
+                }
+            }
             denominator += Descent.dotProd(d[i], this.Hd[i]);
         }
         if (0 == denominator || !Double.isFinite(denominator)) {
@@ -393,26 +649,52 @@ public class Descent {
     }
 
     public double computeStress() {
+        if (null != this.pool) {
+            final double[] rowStress = this.rowValues();
+            RangeTask.forEach(this.pool, this.n, (from, to) -> {
+                for (int u = from; u < to; ++u) {
+                    rowStress[u] = this.computeStressRow(u);
+                }
+            });
+            double stress = 0;
+            for (int u = 0; u < this.n; ++u) {
+                stress += rowStress[u];
+            }
+            return stress;
+        }
         double stress = 0;
         final int nMinus1 = this.n - 1;
         for (int u = 0; u < nMinus1; ++u) {
             final int n = this.n;
             for (int v = u + 1; v < n; ++v) {
-                double l = 0;
-                for (int i = 0; i < this.k; ++i) {
-                    double dx = this.x[i][u] - this.x[i][v];
-                    l += dx * dx;
-                }
-                l = Math.sqrt(l);
-                final double d = this.D[u][v];
-                if (!Double.isFinite(d)) {
-                    continue;
-                }
-                final double rl = d - l;
-                final double d2 = d * d;
-                stress += rl * rl / d2;
+                stress += this.pairStress(u, v);
             }
         }
         return stress;
     }
+
+    // stress of the terms between u and all nodes after it
+    protected double computeStressRow(final int u) {
+        double stress = 0;
+        for (int v = u + 1; v < this.n; ++v) {
+            stress += this.pairStress(u, v);
+        }
+        return stress;
+    }
+
+    private double pairStress(final int u, final int v) {
+        double l = 0;
+        for (int i = 0; i < this.k; ++i) {
+            double dx = this.x[i][u] - this.x[i][v];
+            l += dx * dx;
+        }
+        l = Math.sqrt(l);
+        final double d = this.D[u][v];
+        if (!Double.isFinite(d)) {
+            return 0;
+        }
+        final double rl = d - l;
+        final double d2 = d * d;
+        return rl * rl / d2;
+    }
 }
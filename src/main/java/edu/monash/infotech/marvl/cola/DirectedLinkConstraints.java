@@ -1,5 +1,6 @@
 package edu.monash.infotech.marvl.cola;
 
+import edu.monash.infotech.marvl.cola.vpsc.ConstraintAxis;
 import lombok.AllArgsConstructor;
 
 import java.util.function.ToDoubleFunction;
@@ -7,6 +8,6 @@ import java.util.function.ToDoubleFunction;
 @AllArgsConstructor
 public class DirectedLinkConstraints {
 
-    public String                 axis;
+    public ConstraintAxis         axis;
     public ToDoubleFunction<Link> getMinSeparation;
 }
@@ -1,10 +1,14 @@
 package edu.monash.infotech.marvl.cola;
 
+import edu.monash.infotech.marvl.cola.vpsc.SolverStats;
+
 public class Event {
 
     public EventType type;
     public double    alpha;
     public double    stress;
+    /** for tick events of a layout with solverStats set, the work done by the constraint solver in the tick */
+    public SolverStats solverStats;
 
     public Event(final EventType type, final double alpha) {
         this.type = type;
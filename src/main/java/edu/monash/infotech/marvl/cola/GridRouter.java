@@ -1,16 +1,17 @@
 package edu.monash.infotech.marvl.cola;
 
 import edu.monash.infotech.marvl.cola.geom.Point;
-import edu.monash.infotech.marvl.cola.shortestpaths.Calculator;
+import edu.monash.infotech.marvl.cola.shortestpaths.RouteSearch;
 import edu.monash.infotech.marvl.cola.vpsc.Constraint;
 import edu.monash.infotech.marvl.cola.vpsc.Rectangle;
 import edu.monash.infotech.marvl.cola.vpsc.Solver;
 import edu.monash.infotech.marvl.cola.vpsc.Variable;
 
 import java.util.*;
-import java.util.function.ToDoubleFunction;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 public class GridRouter<T> {
@@ -25,8 +26,18 @@ public class GridRouter<T> {
     public List<LinkWrapper> edges;
     public List<NodeWrapper> backToFront;
     public List<NodeWrapper> obstacles;
-    public List<LinkWrapper> passableEdges;
     public double            groupPadding;
+    /** the routing graph over verts, built from edges */
+    public CsrGraph          graph;
+    /** if set, routeEdges finds the routes in parallel using this pool */
+    public ForkJoinPool      pool;
+
+    // the verts whose node is node i are nodeVerts[nodeVertOffsets[i] .. nodeVertOffsets[i + 1] - 1]
+    private int[]       nodeVertOffsets;
+    private int[]       nodeVerts;
+    private RouteSearch search;
+    // whether every link of the grid is longer than 1, so that turning from one onto another always counts as a bend
+    private boolean     longLinks;
 
     public GridRouter(final List<T> originalnodes, final NodeAccessor<T> accessor) {
         this(originalnodes, accessor, 12.0);
@@ -117,31 +128,26 @@ public class GridRouter<T> {
             h.verts.add(p);
             v.verts.add(p);
             this.verts.add(p);
-
-            // assign vertices to the nodes immediately under them
-            int i = this.backToFront.size();
-            while (0 < i--) {
-                NodeWrapper node = this.backToFront.get(i);
-                Rectangle r = node.rect;
-                double dx = Math.abs(p.x - r.cx()),
-                        dy = Math.abs(p.y - r.cy());
-                if (dx < r.width() / 2 && dy < r.height() / 2) {
-                    p.node = node;
-                    break;
-                }
-            }
         }));
 
-        lines.forEach(l -> {
+        // assign vertices to the nodes immediately under them
+        this.assignCrossings(hlines, vlines);
+
+        // each line need only be intersected with the nodes that span it
+        final int[][] hnodes = this.spanningNodes(hlines, false), vnodes = this.spanningNodes(vlines, true);
+        for (int k = 0; k < lines.size(); k++) {
+            final GridLineSegment l = lines.get(k);
+
             // create vertices at the intersections of nodes and lines
-            this.nodes.forEach(v -> {
+            for (final int i : k < hlines.size() ? hnodes[k] : vnodes[k - hlines.size()]) {
+                final NodeWrapper v = this.nodes.get(i);
                 v.rect.lineIntersections(l.x1, l.y1, l.x2, l.y2).forEach(intersect -> {
                     Vert p = new Vert(this.verts.size(), intersect.x, intersect.y, v);
                     this.verts.add(p);
                     l.verts.add(p);
                     v.ports.add(p);
                 });
-            });
+            }
 
             // split lines into edges joining vertices
             boolean isHoriz = 0.1 > Math.abs(l.y1 - l.y2);
@@ -155,8 +161,123 @@ public class GridRouter<T> {
                 }
                 this.edges.add(new LinkWrapper(u.id, v.id, Math.abs(isHoriz ? (v.x - u.x) : (v.y - u.y))));
             }
+        }
+
+        this.graph = new CsrGraph(this.verts.size(), this.edges, e -> e.source, e -> e.target, e -> e.length);
+        this.search = new RouteSearch(this.graph);
+        this.longLinks = this.edges.stream().allMatch(e -> 1 < e.length);
+        this.nodeVertOffsets = new int[this.nodes.size() + 1];
+        this.verts.forEach(p -> {
+            if (null != p.node) {
+                ++this.nodeVertOffsets[p.node.id + 1];
+            }
         });
+        for (int i = 0; i < this.nodes.size(); i++) {
+            this.nodeVertOffsets[i + 1] += this.nodeVertOffsets[i];
+        }
+        this.nodeVerts = new int[this.nodeVertOffsets[this.nodes.size()]];
+        final int[] fill = Arrays.copyOf(this.nodeVertOffsets, this.nodes.size());
+        this.verts.forEach(p -> {
+            if (null != p.node) {
+                this.nodeVerts[fill[p.node.id]++] = p.id;
+            }
+        });
+    }
 
+    // allowance for rounding when looking for lines near the sides of a rectangle, the exact test is left to the caller
+    private static double slack(final double x) {
+        return 1e-9 * (1 + Math.abs(x));
+    }
+
+    // how far apart [lo, hi] and [lo2, hi2] are, allowing for rounding in the ports on the sides of a rectangle
+    private static double gap(final double lo, final double hi, final double lo2, final double hi2) {
+        return Math.max(0, Math.max(lo2 - slack(lo2) - hi - slack(hi), lo - slack(lo) - hi2 - slack(hi2)));
+    }
+
+    // the order of the positions, and the positions in that order
+    private static int[] sortedOrder(final double[] pos, final double[] sorted) {
+        final int[] order = IntStream.range(0, pos.length).boxed().sorted(Comparator.comparingDouble(i -> pos[i]))
+                                     .mapToInt(Integer::intValue).toArray();
+        for (int i = 0; i < order.length; i++) {
+            sorted[i] = pos[order[i]];
+        }
+        return order;
+    }
+
+    // index of the first of the sorted positions that is at least x
+    private static int lowerBound(final double[] sorted, final double x) {
+        int lo = 0, hi = sorted.length;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (sorted[mid] < x) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * assign each crossing of the grid lines to the front most node it is strictly inside.  Rather than test every crossing against every
+     * node, each node from front to back looks only at the crossings of the lines within its bounds.
+     */
+    private void assignCrossings(final List<GridLineSegment> hlines, final List<GridLineSegment> vlines) {
+        final int rows = hlines.size(), cols = vlines.size();
+        final double[] ys = new double[rows], xs = new double[cols];
+        final int[] rowOrder = sortedOrder(hlines.stream().mapToDouble(h -> h.y1).toArray(), ys),
+                colOrder = sortedOrder(vlines.stream().mapToDouble(v -> v.x1).toArray(), xs);
+        int i = this.backToFront.size();
+        while (0 < i--) {
+            final NodeWrapper node = this.backToFront.get(i);
+            final Rectangle r = node.rect;
+            final int col0 = lowerBound(xs, r.x - slack(r.x)), row0 = lowerBound(ys, r.y - slack(r.y));
+            for (int c = col0; c < cols && xs[c] <= r.X + slack(r.X); c++) {
+                for (int h = row0; h < rows && ys[h] <= r.Y + slack(r.Y); h++) {
+                    final Vert p = this.verts.get(rowOrder[h] * cols + colOrder[c]);
+                    if (null != p.node) {
+                        continue;
+                    }
+                    double dx = Math.abs(p.x - r.cx()),
+                            dy = Math.abs(p.y - r.cy());
+                    if (dx < r.width() / 2 && dy < r.height() / 2) {
+                        p.node = node;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * for each of the given horizontal lines (or vertical lines if vertical is true), the indices in nodes of the nodes that may intersect
+     * it, in increasing order: those whose extent in y (or x) includes the line's position
+     */
+    private int[][] spanningNodes(final List<GridLineSegment> lines, final boolean vertical) {
+        final int n = lines.size();
+        final double[] sorted = new double[n];
+        final int[] order = sortedOrder(lines.stream().mapToDouble(l -> vertical ? l.x1 : l.y1).toArray(), sorted);
+        final int[] counts = new int[n];
+        final int[][] result = new int[n][];
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < this.nodes.size(); i++) {
+                final Rectangle r = this.nodes.get(i).rect;
+                final double lo = vertical ? r.x : r.y, hi = vertical ? r.X : r.Y;
+                for (int k = lowerBound(sorted, lo - slack(lo)); k < n && sorted[k] <= hi + slack(hi); k++) {
+                    final int l = order[k];
+                    if (0 == pass) {
+                        counts[l]++;
+                    } else {
+                        result[l][result[l].length - counts[l]--] = i;
+                    }
+                }
+            }
+            if (0 == pass) {
+                for (int l = 0; l < n; l++) {
+                    result[l] = new int[counts[l]];
+                }
+            }
+        }
+        return result;
     }
 
     private double avg(final List<Double> a) {
@@ -164,36 +285,90 @@ public class GridRouter<T> {
         return result / a.size();
     }
 
-    /** in the given axis, find sets of leaves overlapping in that axis center of each GridLine is average of all nodes in column */
+    /**
+     * in the given axis, find sets of leaves overlapping in that axis center of each GridLine is average of all nodes in column.  Each set
+     * is the leaves not yet in a set that overlap the first such leaf, found with a tree over the leaves in order of their open sides
+     * holding the furthest close side in each subtree, so that only leaves that may overlap are looked at.
+     */
     private List<GridLine> getGridLines(final String axis) {
+        final boolean isX = "x".equals(axis);
+        final int n = this.leaves.size();
+        final double[] open = new double[n], sortedOpen = new double[n];
+        for (int i = 0; i < n; i++) {
+            final Rectangle r = this.leaves.get(i).rect;
+            open[i] = isX ? r.x : r.y;
+        }
+        final int[] order = sortedOrder(open, sortedOpen);
+        int size = 1;
+        while (size < n) {
+            size *= 2;
+        }
+        final double[] furthest = new double[2 * size];
+        Arrays.fill(furthest, Double.NEGATIVE_INFINITY);
+        for (int k = 0; k < n; k++) {
+            final Rectangle r = this.leaves.get(order[k]).rect;
+            furthest[size + k] = isX ? r.X : r.Y;
+        }
+        for (int k = size - 1; 0 < k; k--) {
+            furthest[k] = Math.max(furthest[2 * k], furthest[2 * k + 1]);
+        }
+        final int[] rank = new int[n];
+        for (int k = 0; k < n; k++) {
+            rank[order[k]] = k;
+        }
+
         final List<GridLine> columns = new ArrayList<>();
-        final List<NodeWrapper> ls = new ArrayList<>(this.leaves);
-        if ("x".equals(axis)) {
-            while (0 < ls.size()) {
-                // find a column of all leaves overlapping in axis with the first leaf
-                final List<NodeWrapper> overlapping = ls.stream().filter(v -> (0 != v.rect.overlapX(ls.get(0).rect)))
-                                                        .collect(Collectors.toList());
-                final GridLine col = new GridLine(overlapping,
-                                                  this.avg(overlapping.stream().map(v -> v.rect.cx()).collect(Collectors.toList())));
-                columns.add(col);
-                col.nodes.forEach(v -> ls.remove(v));
+        final boolean[] taken = new boolean[n];
+        final List<Integer> candidates = new ArrayList<>();
+        for (int first = 0; first < n; first++) {
+            if (taken[first]) {
+                continue;
             }
-        } else if ("y".equals(axis)) {
-            while (0 < ls.size()) {
-                // find a column of all leaves overlapping in axis with the first leaf
-                final List<NodeWrapper> overlapping = ls.stream().filter(v -> (0 != v.rect.overlapY(ls.get(0).rect)))
-                                                        .collect(Collectors.toList());
-                final GridLine col = new GridLine(overlapping,
-                                                  this.avg(overlapping.stream().map(v -> v.rect.cy()).collect(Collectors.toList())));
-                columns.add(col);
-                col.nodes.forEach(v -> ls.remove(v));
+            // find a column of all leaves overlapping in axis with the first leaf
+            final Rectangle f = this.leaves.get(first).rect;
+            final double fopen = isX ? f.x : f.y, fclose = isX ? f.X : f.Y;
+            candidates.clear();
+            GridRouter.collect(furthest, size, 1, 0, size, lowerBound(sortedOpen, fclose + slack(fclose)), fopen - slack(fopen), order,
+                               candidates);
+            Collections.sort(candidates);
+            final List<NodeWrapper> overlapping = new ArrayList<>();
+            for (final int c : candidates) {
+                final NodeWrapper v = this.leaves.get(c);
+                if (0 != (isX ? v.rect.overlapX(f) : v.rect.overlapY(f))) {
+                    overlapping.add(v);
+                    taken[c] = true;
+                    int k = size + rank[c];
+                    furthest[k] = Double.NEGATIVE_INFINITY;
+                    for (k /= 2; 0 < k; k /= 2) {
+                        furthest[k] = Math.max(furthest[2 * k], furthest[2 * k + 1]);
+                    }
+                }
             }
+            taken[first] = true;
+            columns.add(new GridLine(overlapping, this.avg(overlapping.stream().map(v -> isX ? v.rect.cx() : v.rect.cy())
+                                                                      .collect(Collectors.toList()))));
         }
         //noinspection NumericCastThatLosesPrecision
         columns.sort((a, b) -> (int)Math.signum(a.pos - b.pos));
         return columns;
     }
 
+    // add to out the leaves under tree node k, which spans [lo, hi) of the order, that come before end and close after min
+    private static void collect(final double[] furthest, final int size, final int k, final int lo, final int hi, final int end,
+                                final double min, final int[] order, final List<Integer> out)
+    {
+        if (lo >= end || furthest[k] <= min) {
+            return;
+        }
+        if (k >= size) {
+            out.add(order[k - size]);
+            return;
+        }
+        final int mid = (lo + hi) >>> 1;
+        GridRouter.collect(furthest, size, 2 * k, lo, mid, end, min, order, out);
+        GridRouter.collect(furthest, size, 2 * k + 1, mid, hi, end, min, order, out);
+    }
+
     /** get the depth of the given node in the group hierarchy */
     private int getDepth(final NodeWrapper v) {
         int depth = 0;
@@ -416,8 +591,26 @@ public class GridRouter<T> {
     public List<List<Segment>> routeEdges(final List<LinkWrapper> rEdges, final double nudgeGap, final ToIntFunction<LinkWrapper> source,
                                           final ToIntFunction<LinkWrapper> target)
     {
-        final List<GridPath<Vert>> routePaths = rEdges.stream().map(e -> this.route(source.applyAsInt(e), target.applyAsInt(e)))
-                                                      .collect(Collectors.toList());
+        final List<GridPath<Vert>> routePaths;
+        if (null == this.pool) {
+            routePaths = rEdges.stream().map(e -> this.route(source.applyAsInt(e), target.applyAsInt(e))).collect(Collectors.toList());
+        } else {
+            // each route depends only on the graph, so they can be found in any order, each thread with a search of its own
+            final int n = rEdges.size();
+            final int[] s = new int[n], t = new int[n];
+            for (int i = 0; i < n; i++) {
+                s[i] = source.applyAsInt(rEdges.get(i));
+                t[i] = target.applyAsInt(rEdges.get(i));
+            }
+            routePaths = new ArrayList<>(Collections.nCopies(n, null));
+            RangeTask.forEach(this.pool, n, (from, to) -> {
+                final RouteSearch search = new RouteSearch(this.graph);
+                for (int i = from; i < to; i++) {
+                    final NodeWrapper u = this.nodes.get(s[i]), v = this.nodes.get(t[i]);
+                    routePaths.set(i, this.route(u, v, this.siblingObstacles(u, v), search));
+                }
+            });
+        }
         final ToBooleanBiFunction<Integer, Integer> order = GridRouter.orderEdges(routePaths);
         final List<List<Segment>> routes = routePaths.stream().map(e -> GridRouter.makeSegments(e))
                                                      .collect(Collectors.toList());
@@ -477,11 +670,13 @@ public class GridRouter<T> {
     public static ToBooleanBiFunction<Integer, Integer> orderEdges(final List<GridPath<Vert>> routePaths) {
         final List<Pair> edgeOrder = new ArrayList<>();
         final int n = routePaths.size();
+        // only paths that pass through a common vertex can have a common subpath
+        final PathIndex index = new PathIndex(routePaths);
         for (int i = 0; i < n - 1; i++) {
-            for (int j = i + 1; j < n; j++) {
+            for (final int j : index.select(i)) {
                 final GridPath<Vert> e = routePaths.get(i),
                         f = routePaths.get(j);
-                LongestCommonSubsequence<Vert> lcs = new LongestCommonSubsequence<>(e, f);
+                LongestCommonSubsequence<Vert> lcs = index.commonSubpath(e, j);
                 final Vert u, vi, vj;
                 if (0 == lcs.length) {
                     continue; // no common subpath
@@ -491,7 +686,8 @@ public class GridRouter<T> {
                     // then reverse f.
                     Collections.reverse(f);
                     f.reversed = true;
-                    lcs = new LongestCommonSubsequence<>(e, f);
+                    index.reverse(j);
+                    lcs = index.commonSubpath(e, j);
                 }
                 if ((0 >= lcs.si || 0 >= lcs.ti) &&
                     (lcs.si + lcs.length >= e.size() || lcs.ti + lcs.length >= f.size())) {
@@ -548,39 +744,62 @@ public class GridRouter<T> {
         return segments;
     }
 
-    /** find a route between node s and node t returns an array of indices to verts */
+    /**
+     * find a route between node s and node t returns an array of indices to verts.  The routing graph is only built once: the verts of
+     * the obstacles are blocked and the ports of the source and target linked for this search alone.
+     */
     public GridPath<Vert> route(final int s, final int t) {
         final NodeWrapper source = this.nodes.get(s), target = this.nodes.get(t);
         this.obstacles = this.siblingObstacles(source, target);
+        return this.route(source, target, this.obstacles, this.search);
+    }
+
+    private GridPath<Vert> route(final NodeWrapper source, final NodeWrapper target, final List<NodeWrapper> obstacles,
+                                 final RouteSearch search)
+    {
+        this.prepare(search, source, target, obstacles);
 
-        final Map<Integer, NodeWrapper> obstacleLookup = new HashMap<>();
-        this.obstacles.forEach(o -> obstacleLookup.put(o.id, o));
-        this.passableEdges = this.edges.stream().filter(e -> {
-            final Vert u = this.verts.get(e.source),
-                    v = this.verts.get(e.target);
-            return !(null != u.node && obstacleLookup.containsKey(u.node.id)
-                     || null != v.node && obstacleLookup.containsKey(v.node.id));
-        }).collect(Collectors.toList());
+        // get shortest path
+        final List<Integer> shortestPath = search.path(source.ports.get(0).id, target.ports.get(0).id, this.bendPenalty(source, target),
+                                                       this.toTarget(source, target));
+
+        // shortest path is reversed and does not include the target port
+        Collections.reverse(shortestPath);
+        final List<Vert> pathPoints = shortestPath.stream().map(vi -> this.verts.get(vi)).collect(Collectors.toList());
+        pathPoints.add(this.nodes.get(target.id).ports.get(0));
+
+        // filter out any extra end points that are inside the source or target (i.e. the dummy segments above)
+        final GridPath<Vert> path = new GridPath<>(pathPoints.size());
+        for (int i = 0, n = pathPoints.size(); i < n; i++) {
+            final Vert v = pathPoints.get(i);
+            if (!(i < n - 1 && source.equals(pathPoints.get(i + 1).node) && source.equals(v.node)
+                  || 0 < i && target.equals(v.node) && target.equals(pathPoints.get(i - 1).node))) {
+                path.add(v);
+            }
+        }
+        return path;
+    }
+
+    /** block the verts of the obstacles and link the ports of the source and the target, for a search for a route between them */
+    void prepare(final RouteSearch search, final NodeWrapper source, final NodeWrapper target, final List<NodeWrapper> obstacles) {
+        search.reset();
+        obstacles.forEach(o -> {
+            for (int i = this.nodeVertOffsets[o.id]; i < this.nodeVertOffsets[o.id + 1]; i++) {
+                search.block(this.nodeVerts[i]);
+            }
+        });
 
         // add dummy segments linking ports inside source and target
         for (int i = 1, n = source.ports.size(); i < n; i++) {
-            final int u = source.ports.get(0).id;
-            final int v = source.ports.get(i).id;
-            this.passableEdges.add(new LinkWrapper(u, v, 0));
+            search.link(source.ports.get(0).id, source.ports.get(i).id);
         }
         for (int i = 1, n = target.ports.size(); i < n; i++) {
-            final int u = target.ports.get(0).id;
-            final int v = target.ports.get(i).id;
-            this.passableEdges.add(new LinkWrapper(u, v, 0));
+            search.link(target.ports.get(0).id, target.ports.get(i).id);
         }
+    }
 
-        final ToIntFunction<LinkWrapper> getSource = e -> e.source,
-                getTarget = e -> e.target;
-        final ToDoubleFunction<LinkWrapper> getLength = e -> e.length;
-
-        final Calculator<LinkWrapper> shortestPathCalculator = new Calculator<>(verts.size(), passableEdges, getSource, getTarget,
-                                                                                getLength);
-        final TriFunction<Integer, Integer, Integer, Double> bendPenalty = (u, v, w) -> {
+    RouteSearch.TurnCost bendPenalty(final NodeWrapper source, final NodeWrapper target) {
+        return (u, v, w) -> {
             final Vert a = this.verts.get(u), b = this.verts.get(v), c = this.verts.get(w);
             final double dx = Math.abs(c.x - a.x), dy = Math.abs(c.y - a.y);
             // don't count bends from internal node edges
@@ -589,22 +808,52 @@ public class GridRouter<T> {
             }
             return 1 < dx && 1 < dy ? 1000.0 : 0.0;
         };
+    }
 
-        // get shortest path
-        final List<Integer> shortestPath = shortestPathCalculator.PathFromNodeToNodeWithPrevCost(
-                source.ports.get(0).id, target.ports.get(0).id, bendPenalty);
-
-        // shortest path is reversed and does not include the target port
-        Collections.reverse(shortestPath);
-        final List<Vert> pathPoints = shortestPath.stream().map(vi -> this.verts.get(vi)).collect(Collectors.toList());
-        pathPoints.add(this.nodes.get(target.id).ports.get(0));
-
-        // filter out any extra end points that are inside the source or target (i.e. the dummy segments above)
+    /**
+     * a lower bound on the cost of the rest of a route from the source to the target: the distance still to go in x and y, and a bend for
+     * each turn the route will have to make on the way
+     */
+    RouteSearch.Heuristic toTarget(final NodeWrapper source, final NodeWrapper target) {
+        final Rectangle sr = source.rect, tr = target.rect;
+        final double between = gap(sr.x, sr.X, tr.x, tr.X) + gap(sr.y, sr.Y, tr.y, tr.Y);
+        return (u, v) -> {
+            final Vert a = -1 != u ? this.verts.get(u) : null, b = this.verts.get(v);
+            // turns inside the source are free and it can be left from any port, so from there only the distance to the target counts
+            if (source.equals(b.node)) {
+                return between;
+            }
+            // either the route reaches the target first, with every turn on the way a bend, or it goes back through the source
+            final double direct = gap(b.x, b.x, tr.x, tr.X) + gap(b.y, b.y, tr.y, tr.Y),
+                    back = gap(b.x, b.x, sr.x, sr.X) + gap(b.y, b.y, sr.y, sr.Y) + between;
+            if (!this.longLinks) {
+                return Math.min(direct, back);
+            }
+            return Math.min(direct + 1000.0 * turnsTo(tr, a, b), back + 1000.0 * turnsTo(sr, a, b));
+        };
+    }
 
-        return pathPoints.stream().filter((v) -> {
-            int i = pathPoints.indexOf(v);
-            return !(i < pathPoints.size() - 1 && source.equals(pathPoints.get(i + 1).node) && source.equals(v.node)
-                     || 0 < i && target.equals(v.node) && target.equals(pathPoints.get(i - 1).node));
-        }).collect(Collectors.toCollection(GridPath::new));
+    /**
+     * the fewest turns a path along the grid must make to reach r from b, having come from a (or from nowhere if a is null).  Where every
+     * link is longer than 1, each of those turns costs a bend unless it is inside the source or target.
+     */
+    private static int turnsTo(final Rectangle r, final Vert a, final Vert b) {
+        // the ways the path has to go and the way it is heading, as -1, 0 or 1 in x and y
+        final int gx = 0 < gap(b.x, b.x, r.x, r.X) ? (int)Math.signum(r.cx() - b.x) : 0,
+                gy = 0 < gap(b.y, b.y, r.y, r.Y) ? (int)Math.signum(r.cy() - b.y) : 0;
+        final int hx = null != a ? (int)Math.signum(b.x - a.x) : 0, hy = null != a ? (int)Math.signum(b.y - a.y) : 0;
+        final int ways = (0 != gx ? 1 : 0) + (0 != gy ? 1 : 0);
+        if (0 == ways) {
+            return 0;
+        }
+        if (0 != hx && hx == -gx || 0 != hy && hy == -gy) {
+            // heading away, so it has to turn off and back again
+            return 2;
+        }
+        if (0 == hx && 0 == hy || 0 != hx && hx == gx || 0 != hy && hy == gy) {
+            return ways - 1;
+        }
+        // heading across the one way it has to go
+        return 1;
     }
 }
@@ -237,60 +237,64 @@ public class HandleDisconnected {
         put_nodes_to_right_positions(graphs);
     }
 
-    private int explore_node(final GraphNode n, final boolean is_new, final Map<Integer, Integer> marks, int clusters,
-                             final List<Graph> graphs, final Map<Integer, List<GraphNode>> ways)
-    {
-        if (marks.containsKey(n.index)) {
-            return clusters;
-        }
-        if (is_new) {
-            clusters++;
-            graphs.add(new Graph());
-        }
-        marks.put(n.index, clusters);
-        graphs.get(clusters - 1).array.add(n);
-        List<GraphNode> adjacent = ways.get(n.index);
-        if (null == adjacent) {
-            return clusters;
+    /**
+     * connected components of graph returns an array of {}.  Node indices are only keys: they need not match positions in the list, but must
+     * not be negative.
+     */
+    public List<Graph> separateGraphs(final List<GraphNode> nodes, final List<Link> links) {
+        int n = 0;
+        for (final GraphNode v : nodes) {
+            n = Math.max(n, v.index + 1);
         }
-
-        for (int j = 0; j < adjacent.size(); j++) {
-            clusters = explore_node(adjacent.get(j), false, marks, clusters, graphs, ways);
+        for (final Link l : links) {
+            n = Math.max(n, Math.max(((GraphNode)l.source).index, ((GraphNode)l.target).index) + 1);
         }
-
-        return clusters;
+        return this.separateGraphs(nodes, new CsrGraph(n, links, l -> ((GraphNode)l.source).index,
+                                                       l -> ((GraphNode)l.target).index, l -> 1));
     }
 
-    /** connected components of graph returns an array of {} */
-    public List<Graph> separateGraphs(final List<GraphNode> nodes, final List<Link> links) {
-        final Map<Integer, Integer> marks = new HashMap<>();
-        final Map<Integer, List<GraphNode>> ways = new HashMap<>();
+    /**
+     * connected components of the nodes, with adjacency given by graph, which may have more nodes than the list.  Nodes are found in the
+     * graph by their index, which must be below graph.n; graph nodes that are not in the list join up components but are not listed in
+     * them.  Each component lists its nodes in depth first order, following links in the order they were given.
+     */
+    public List<Graph> separateGraphs(final List<GraphNode> nodes, final CsrGraph graph) {
         final List<Graph> graphs = new ArrayList<>();
-        int clusters = 0;
-
-        for (final Link link : links) {
-            final GraphNode n1 = (GraphNode)link.source;
-            final GraphNode n2 = (GraphNode)link.target;
-            if (ways.containsKey(n1.index)) {
-                ways.get(n1.index).add(n2);
-            } else {
-                ways.put(n1.index, new ArrayList<>(Arrays.asList(n2)));
-            }
-
-            if (ways.containsKey(n2.index)) {
-                ways.get(n2.index).add(n1);
-            } else {
-                ways.put(n2.index, new ArrayList<>(Arrays.asList(n1)));
-            }
+        final GraphNode[] byIndex = new GraphNode[graph.n];
+        for (final GraphNode node : nodes) {
+            byIndex[node.index] = node;
         }
-
+        final boolean[] marked = new boolean[graph.n];
+        // explicit depth first search stack of nodes and the next of their neighbours to explore
+        final int[] stack = new int[graph.n], next = new int[graph.n];
         for (final GraphNode node : nodes) {
-            if (marks.containsKey(node.index)) {
+            if (marked[node.index]) {
                 continue;
             }
-            clusters = explore_node(node, true, marks, clusters, graphs, ways);
+            final Graph component = new Graph();
+            graphs.add(component);
+            marked[node.index] = true;
+            component.array.add(node);
+            int top = 0;
+            stack[0] = node.index;
+            next[0] = graph.offsets[node.index];
+            while (0 <= top) {
+                final int u = stack[top];
+                if (next[top] == graph.offsets[u + 1]) {
+                    --top;
+                    continue;
+                }
+                final int v = graph.targets[next[top]++];
+                if (!marked[v]) {
+                    marked[v] = true;
+                    if (null != byIndex[v]) {
+                        component.array.add(byIndex[v]);
+                    }
+                    stack[++top] = v;
+                    next[top] = graph.offsets[v];
+                }
+            }
         }
-
         return graphs;
     }
 }
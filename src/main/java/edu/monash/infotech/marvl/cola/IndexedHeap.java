@@ -0,0 +1,163 @@
+package edu.monash.infotech.marvl.cola;
+
+import java.util.Arrays;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * A 4-ary min heap of int items with double keys.  Each item's position in the heap is indexed, so that decreaseKey is O(log n) and
+ * nothing is allocated once the arrays have grown to fit the largest item.  Items with equal keys come out lowest item first.
+ */
+public class IndexedHeap {
+
+    private double[] keys;
+    private int[]    heap;
+    // position of each item in heap, or -1 if it is not in the heap
+    private int[]    position;
+    private int      size;
+
+    public IndexedHeap(final int capacity) {
+        final int c = Math.max(1, capacity);
+        this.keys = new double[c];
+        this.heap = new int[c];
+        this.position = new int[c];
+        Arrays.fill(this.position, -1);
+    }
+
+    public boolean empty() {
+        return 0 == this.size;
+    }
+
+    public int count() {
+        return this.size;
+    }
+
+    public boolean contains(final int item) {
+        return item < this.position.length && 0 <= this.position[item];
+    }
+
+    /** the key the item was last given */
+    public double key(final int item) {
+        return this.keys[item];
+    }
+
+    /** remove all items */
+    public void clear() {
+        while (0 < this.size) {
+            this.position[this.heap[--this.size]] = -1;
+        }
+    }
+
+    /** add an item that is not in the heap */
+    public void push(final int item, final double key) {
+        if (item >= this.position.length) {
+            final int c = Math.max(item + 1, 2 * this.position.length);
+            this.keys = Arrays.copyOf(this.keys, c);
+            this.heap = Arrays.copyOf(this.heap, c);
+            final int old = this.position.length;
+            this.position = Arrays.copyOf(this.position, c);
+            Arrays.fill(this.position, old, c, -1);
+        }
+        this.keys[item] = key;
+        this.siftUp(item, this.size++);
+    }
+
+    /** lower the key of an item in the heap */
+    public void decreaseKey(final int item, final double key) {
+        this.keys[item] = key;
+        this.siftUp(item, this.position[item]);
+    }
+
+    /** set the key of an item in the heap, higher or lower */
+    public void update(final int item, final double key) {
+        final double old = this.keys[item];
+        this.keys[item] = key;
+        if (key < old) {
+            this.siftUp(item, this.position[item]);
+        } else {
+            this.siftDown(item, this.position[item]);
+        }
+    }
+
+    /** give every item in the heap a new key, rebuilding the heap in time linear in its size */
+    public void updateAll(final IntToDoubleFunction key) {
+        for (int i = 0; i < this.size; ++i) {
+            this.keys[this.heap[i]] = key.applyAsDouble(this.heap[i]);
+        }
+        for (int i = (this.size - 2) >> 2; 0 <= i; --i) {
+            this.siftDown(this.heap[i], i);
+        }
+    }
+
+    /** take an item out of the heap */
+    public void remove(final int item) {
+        final int i = this.position[item];
+        this.position[item] = -1;
+        if (i == --this.size) {
+            return;
+        }
+        final int last = this.heap[this.size];
+        this.siftUp(last, i);
+        if (this.position[last] == i) {
+            this.siftDown(last, i);
+        }
+    }
+
+    /** the item with the least key, without removing it */
+    public int top() {
+        return this.heap[0];
+    }
+
+    /** remove and return the item with the least key */
+    public int pop() {
+        final int top = this.heap[0];
+        this.position[top] = -1;
+        if (0 < --this.size) {
+            this.siftDown(this.heap[this.size], 0);
+        }
+        return top;
+    }
+
+    private boolean lessThan(final int a, final int b) {
+        return this.keys[a] < this.keys[b] || this.keys[a] == this.keys[b] && a < b;
+    }
+
+    private void siftUp(final int item, int i) {
+        while (0 < i) {
+            final int parent = (i - 1) >> 2;
+            final int p = this.heap[parent];
+            if (!this.lessThan(item, p)) {
+                break;
+            }
+            this.heap[i] = p;
+            this.position[p] = i;
+            i = parent;
+        }
+        this.heap[i] = item;
+        this.position[item] = i;
+    }
+
+    private void siftDown(final int item, int i) {
+        while (true) {
+            final int first = 4 * i + 1;
+            if (first >= this.size) {
+                break;
+            }
+            int best = first;
+            final int last = Math.min(first + 4, this.size);
+            for (int c = first + 1; c < last; ++c) {
+                if (this.lessThan(this.heap[c], this.heap[best])) {
+                    best = c;
+                }
+            }
+            final int b = this.heap[best];
+            if (!this.lessThan(b, item)) {
+                break;
+            }
+            this.heap[i] = b;
+            this.position[b] = i;
+            i = best;
+        }
+        this.heap[i] = item;
+        this.position[item] = i;
+    }
+}
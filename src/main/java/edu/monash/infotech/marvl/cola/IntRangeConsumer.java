@@ -0,0 +1,8 @@
+package edu.monash.infotech.marvl.cola;
+
+@FunctionalInterface
+public interface IntRangeConsumer {
+
+    /** Performs this operation on the indices from (inclusive) to to (exclusive). */
+    void accept(int from, int to);
+}
@@ -8,6 +8,7 @@ import edu.monash.infotech.marvl.cola.shortestpaths.Calculator;
 import edu.monash.infotech.marvl.cola.vpsc.*;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.ToDoubleFunction;
@@ -24,6 +25,13 @@ public class Layout {
     private Consumer<Void> _linkLengthCalculator = null;
     private boolean        _avoidOverlaps        = false;
     private boolean        _handleDisconnected   = true;
+    private boolean        _matrixFreeHessian    = false;
+    private ForkJoinPool   _forkJoinPool         = null;
+    private int            _sparseStressPivots   = 0;
+    private boolean        _stochasticDescent    = false;
+    private Multilevel     _multilevel           = null;
+    private SolverStats    _solverStats          = null;
+    private int            _pivotMDS             = 0;
     private double _alpha;
     private double                  _lastStress              = Double.NaN;
     private boolean                 _running                 = false;
@@ -101,6 +109,7 @@ public class Layout {
             }
         }
 
+        final SolverStats statsBefore = null != this._solverStats ? this._solverStats.copy() : null;
         final double s1 = this._descent.rungeKutta();
         //var s1 = descent.reduceStress();
         if (0 == s1) {
@@ -117,7 +126,11 @@ public class Layout {
             o.y = y[i];
         }
 
-        this.trigger(new Event(EventType.tick, this._alpha, this._lastStress));
+        final Event e = new Event(EventType.tick, this._alpha, this._lastStress);
+        if (null != statsBefore) {
+            e.solverStats = this._solverStats.since(statsBefore);
+        }
+        this.trigger(e);
         return false;
     }
 
@@ -211,12 +224,105 @@ public class Layout {
         return this;
     }
 
+    /**
+     * if true, the descent does not store the full Hessian but recomputes its off-diagonal entries when computing step sizes. This trades
+     * some speed for O(n) rather than O(n^2) Hessian memory.
+     */
+    public boolean matrixFreeHessian() {
+        return this._matrixFreeHessian;
+    }
+
+    public Layout matrixFreeHessian(final boolean v) {
+        this._matrixFreeHessian = v;
+        return this;
+    }
+
+    /**
+     * if set, the all-pairs shortest paths and the descent's derivatives and stress are computed in parallel using this pool, as are the
+     * projections of independent groups of constrained nodes
+     */
+    public ForkJoinPool forkJoinPool() {
+        return this._forkJoinPool;
+    }
+
+    public Layout forkJoinPool(final ForkJoinPool pool) {
+        this._forkJoinPool = pool;
+        return this;
+    }
+
+    /**
+     * number of pivots to use for sparse stress, or 0 (the default) to use full stress over all pairs of nodes. With pivots, each node only
+     * has exact terms for its neighbours plus terms towards the pivots, see SparseDescent. Ignored if a distance matrix is specified.
+     */
+    public int sparseStress() {
+        return this._sparseStressPivots;
+    }
+
+    public Layout sparseStress(final int pivots) {
+        this._sparseStressPivots = pivots;
+        return this;
+    }
+
+    /**
+     * if true, stress is reduced by stochastic gradient descent over node pairs (see StochasticDescent) rather than by the Runge-Kutta
+     * descent. The step size is annealed over the iterations given to start(). Grid snap is not supported by this engine and it is
+     * ignored if sparseStress is set.
+     */
+    public boolean stochasticDescent() {
+        return this._stochasticDescent;
+    }
+
+    public Layout stochasticDescent(final boolean v) {
+        this._stochasticDescent = v;
+        return this;
+    }
+
+    /**
+     * if set, nodes without a preassigned position are placed by a multilevel layout of the link graph rather than starting at the centre
+     * of the canvas. Time spent on each level is recorded in the Multilevel object. Ignored if a distance matrix is specified.
+     */
+    public Multilevel multilevel() {
+        return this._multilevel;
+    }
+
+    public Layout multilevel(final Multilevel m) {
+        this._multilevel = m;
+        return this;
+    }
+
+    /**
+     * if set, the work done by the constraint solver in every projection is added to these counters, and each tick event carries the
+     * counts for that tick
+     */
+    public SolverStats solverStats() {
+        return this._solverStats;
+    }
+
+    public Layout solverStats(final SolverStats stats) {
+        this._solverStats = stats;
+        return this;
+    }
+
+    /**
+     * number of pivots for a pivot MDS placement of the nodes without a preassigned position, or 0 (the default) to start them at the
+     * centre of the canvas. Applied before any multilevel placement, which then leaves the nodes it placed where they are. Ignored if a
+     * distance matrix is specified.
+     */
+    public int pivotMDS() {
+        return this._pivotMDS;
+    }
+
+    public Layout pivotMDS(final int pivots) {
+        this._pivotMDS = pivots;
+        return this;
+    }
+
     public Layout flowLayout() {
         return flowLayout("y", 0);
     }
 
     public Layout flowLayout(final String axis, final double minSeparation) {
-        this._directedLinkConstraints = new DirectedLinkConstraints(axis, (l) -> {return minSeparation;});
+        this._directedLinkConstraints = new DirectedLinkConstraints(ConstraintAxis.valueOf(axis), (l) -> {return minSeparation;});
         return this;
     }
 
@@ -229,7 +335,7 @@ public class Layout {
      *                      return the minimum spacing for each link
      */
     public Layout flowLayout(final String axis, ToDoubleFunction<Link> minSeparation) {
-        this._directedLinkConstraints = new DirectedLinkConstraints(axis, minSeparation);
+        this._directedLinkConstraints = new DirectedLinkConstraints(ConstraintAxis.valueOf(axis), minSeparation);
         return this;
     }
 
@@ -504,9 +610,11 @@ public class Layout {
 
         final boolean ao = this._avoidOverlaps;
 
+        final boolean[] hasPosition = new boolean[n];
         for (int i = 0; i < _nodes.size(); i++) {
             final GraphNode v = _nodes.get(i);
             v.index = i;
+            hasPosition[i] = !Double.isNaN(v.x) || v.fixed;
             if (Double.isNaN(v.x)) {
                 v.x = w / 2;
                 v.y = h / 2;
@@ -515,30 +623,51 @@ public class Layout {
             y[i] = v.y;
         }
 
+        if (0 < this._pivotMDS && null == this._distanceMatrix) {
+            this.pivotMDSPlacement(x, y, hasPosition);
+        }
+        if (null != this._multilevel && null == this._distanceMatrix) {
+            this.multilevelPlacement(x, y, hasPosition);
+        }
+
         //should we do this to clearly label groups?
         //this._groups.forEach((g, i) => g.groupIndex = i);
 
+        // adjacency of the links, shared by the shortest paths and the separation of disconnected components
+        final CsrGraph graph = null == this._distanceMatrix
+                               ? new CsrGraph(N, this._links, (l) -> Layout.getSourceIndex(l), (l) -> Layout.getTargetIndex(l),
+                                              l -> this.getLinkLength(l))
+                               : null;
+
         double[][] distances;
+        final SparseDescent sparseDescent;
         if (null != this._distanceMatrix) {
             // use the user specified distanceMatrix
             distances = this._distanceMatrix;
             G = null;
+            sparseDescent = null;
+        } else if (0 < this._sparseStressPivots) {
+            // sparse stress needs neither the distance matrix nor G, only distances from the pivots
+            distances = null;
+            G = null;
+            sparseDescent = new SparseDescent(new double[][] {x, y}, this._links, (l) -> Layout.getSourceIndex(l),
+                                              (l) -> Layout.getTargetIndex(l), l -> this.getLinkLength(l), this._sparseStressPivots);
         } else {
+            sparseDescent = null;
             // construct an n X n distance matrix based on shortest paths through graph (with respect to edge.length).
-            distances = (new Calculator<>(N, this._links, (l) -> Layout.getSourceIndex(l), (l) -> Layout.getTargetIndex(l),
-                                          l -> this.getLinkLength(l))).DistanceMatrix();
+            distances = (new Calculator<>(graph, this._links)).DistanceMatrix(this._forkJoinPool);
 
             // G is a square matrix with G[i][j] = 1 iff there exists an edge between node i and node j
             // otherwise 2. (
             G = Descent.createSquareMatrix(N, (a, b) -> 2);
-            this._links.forEach(e -> {
-                final int u = Layout.getSourceIndex(e), v = Layout.getTargetIndex(e);
-                G[u][v] = 1;
-                G[v][u] = 1;
-            });
+            for (int u = 0; u < N; ++u) {
+                for (int i = graph.offsets[u]; i < graph.offsets[u + 1]; ++i) {
+                    G[u][graph.targets[i]] = 1;
+                }
+            }
         }
 
-        double[][] D = Descent.createSquareMatrix(N, (i, j) -> {
+        double[][] D = null != sparseDescent ? null : Descent.createSquareMatrix(N, (i, j) -> {
             return distances[i][j];
         });
 
@@ -546,6 +675,10 @@ public class Layout {
             final double strength = this._groupCompactness;
             final double idealDistance = 0.1;
             final BiConsumer<Integer, Integer> addAttraction = (i, j) -> {
+                if (null != sparseDescent) {
+                    sparseDescent.addAttraction(i, j, idealDistance, strength);
+                    return;
+                }
                 G[j][i] = strength;
                 G[i][j] = strength;
                 D[j][i] = idealDistance;
@@ -588,7 +721,17 @@ public class Layout {
         }
 
         this.avoidOverlaps(false);
-        this._descent = new Descent(new double[][] {x, y}, D);
+        if (null != sparseDescent) {
+            this._descent = sparseDescent;
+        } else if (this._stochasticDescent) {
+            final StochasticDescent sgd = new StochasticDescent(new double[][] {x, y}, D);
+            sgd.epochs = Math.max(sgd.epochs, initialUnconstrainedIterations + initialUserConstraintIterations
+                                              + initialAllConstraintsIterations);
+            this._descent = sgd;
+        } else {
+            this._descent = new Descent(new double[][] {x, y}, D, null, this._matrixFreeHessian);
+        }
+        this._descent.pool = this._forkJoinPool;
 
         this._descent.locks.clear();
         for (int i = 0; i < n; ++i) {
@@ -607,7 +750,7 @@ public class Layout {
 
         // apply initialIterations with user constraints but no nonoverlap constraints
         if (0 < curConstraints.size()) {
-            this._descent.project = new Projection(this._nodes, this._groups, this._rootGroup, curConstraints).projectFunctions();
+            this._descent.project = this.projection(new Projection(this._nodes, this._groups, this._rootGroup, curConstraints));
         }
         this._descent.run(initialUserConstraintIterations);
 
@@ -619,7 +762,7 @@ public class Layout {
                 v.x = x[i];
                 v.y = y[i];
             }
-            this._descent.project = new Projection(this._nodes, this._groups, this._rootGroup, curConstraints, true).projectFunctions();
+            this._descent.project = this.projection(new Projection(this._nodes, this._groups, this._rootGroup, curConstraints, true));
             for (int i = 0; i < _nodes.size(); i++) {
                 final GraphNode v = _nodes.get(i);
                 x[i] = v.x;
@@ -628,7 +771,11 @@ public class Layout {
         }
 
         // allow not immediately connected nodes to relax apart (p-stress)
-        this._descent.G = G;
+        if (null != sparseDescent) {
+            sparseDescent.pStress = true;
+        } else {
+            this._descent.G = G;
+        }
         this._descent.run(initialAllConstraintsIterations);
 
         if (0 < gridSnapIterations) {
@@ -636,12 +783,15 @@ public class Layout {
             this._descent.snapGridSize = this._nodes.get(0).width;
             this._descent.numGridSnapNodes = n;
             this._descent.scaleSnapByMaxH = n != N; // if we have groups then need to scale hessian so grid forces still apply
-            this._descent.G = Descent.createSquareMatrix(N, (i, j) -> {
-                if (i >= n || j >= n) {
-                    return G[i][j];
-                }
-                return 0;
-            });
+            // with sparse stress the snap forces act alongside the (p-stress) terms rather than replacing them
+            if (null == sparseDescent) {
+                this._descent.G = Descent.createSquareMatrix(N, (i, j) -> {
+                    if (i >= n || j >= n) {
+                        return G[i][j];
+                    }
+                    return 0;
+                });
+            }
             this._descent.run(gridSnapIterations);
         }
 
@@ -662,7 +812,7 @@ public class Layout {
         // recalculate nodes position for disconnected graphs
         if (null == this._distanceMatrix && this._handleDisconnected) {
             final HandleDisconnected handleDisconnected = new HandleDisconnected();
-            final List<Graph> graphs = handleDisconnected.separateGraphs(this._nodes, this._links);
+            final List<Graph> graphs = handleDisconnected.separateGraphs(this._nodes, graph);
             handleDisconnected.applyPacking(graphs, w, h, this._defaultNodeSize);
 
             for (int i = 0; i < _nodes.size(); i++) {
@@ -674,6 +824,88 @@ public class Layout {
         return keepRunning ? this.resume() : this;
     }
 
+    // initial positions for nodes without them from a pivot MDS layout of the links between the (non group dummy) nodes, centred on the
+    // nodes that already have positions or else on the canvas
+    private void pivotMDSPlacement(final double[] x, final double[] y, final boolean[] hasPosition) {
+        final int n = this._nodes.size();
+        final double[][] p = PivotMDS.layout(n, this._links, (l) -> Layout.getSourceIndex(l), (l) -> Layout.getTargetIndex(l),
+                                             l -> this.getLinkLength(l), this._pivotMDS);
+        double cx = 0, cy = 0, px = 0, py = 0;
+        int positioned = 0;
+        for (int i = 0; i < n; ++i) {
+            if (hasPosition[i]) {
+                cx += x[i];
+                cy += y[i];
+                px += p[0][i];
+                py += p[1][i];
+                ++positioned;
+            }
+        }
+        if (0 < positioned) {
+            cx = (cx - px) / positioned;
+            cy = (cy - py) / positioned;
+        } else {
+            cx = this._canvasSize[0] / 2;
+            cy = this._canvasSize[1] / 2;
+        }
+        for (int i = 0; i < n; ++i) {
+            if (!hasPosition[i]) {
+                x[i] = cx + p[0][i];
+                y[i] = cy + p[1][i];
+                hasPosition[i] = true;
+            }
+        }
+    }
+
+    // initial positions for nodes without them from a multilevel layout of the links between the (non group dummy) nodes
+    private void multilevelPlacement(final double[] x, final double[] y, final boolean[] hasPosition) {
+        final int n = this._nodes.size(), m = this._links.size();
+        final int[] sources = new int[m], targets = new int[m];
+        final double[] lengths = new double[m];
+        for (int i = 0; i < m; ++i) {
+            final Link l = this._links.get(i);
+            sources[i] = Layout.getSourceIndex(l);
+            targets[i] = Layout.getTargetIndex(l);
+            lengths[i] = this.getLinkLength(l);
+        }
+        final Map<Group, Integer> groupIndex = new HashMap<>();
+        for (int i = 0; i < this._groups.size(); ++i) {
+            groupIndex.put(this._groups.get(i), i);
+        }
+        // nodes that already have a position, from the caller or a pivot MDS placement, are held where they are
+        final boolean[] fixed = new boolean[n];
+        final int[] group = new int[n];
+        boolean unplaced = false;
+        for (int i = 0; i < n; ++i) {
+            final GraphNode v = this._nodes.get(i);
+            fixed[i] = v.fixed || hasPosition[i];
+            unplaced |= !fixed[i];
+            group[i] = null != v.parent ? groupIndex.get(v.parent) : -1;
+        }
+        if (!unplaced) {
+            return;
+        }
+        final double[] mx = Arrays.copyOf(x, n), my = Arrays.copyOf(y, n);
+        if (null == this._multilevel.pool) {
+            this._multilevel.pool = this._forkJoinPool;
+        }
+        this._multilevel.layout(sources, targets, lengths, fixed, group, mx, my, hasPosition);
+        for (int i = 0; i < n; ++i) {
+            if (!hasPosition[i]) {
+                x[i] = mx[i];
+                y[i] = my[i];
+                hasPosition[i] = true;
+            }
+        }
+    }
+
+    // the projection functions of a projection that uses the layout's pool and counts into its solver stats
+    private List<TriConsumer<double[], double[], double[]>> projection(final Projection projection) {
+        projection.pool = this._forkJoinPool;
+        projection.stats = this._solverStats;
+        return projection.projectFunctions();
+    }
+
     public Layout resume() {
         return this.alpha(0.1);
     }
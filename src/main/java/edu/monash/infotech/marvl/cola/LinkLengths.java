@@ -1,6 +1,7 @@
 package edu.monash.infotech.marvl.cola;
 
 import edu.monash.infotech.marvl.cola.vpsc.Constraint;
+import edu.monash.infotech.marvl.cola.vpsc.ConstraintAxis;
 import edu.monash.infotech.marvl.cola.vpsc.ValueHolder;
 
 import java.util.*;
@@ -60,6 +61,48 @@ public class LinkLengths {
         });
     }
 
+    // modify the specified link lengths by the result of function f, of the neighbour set sizes of their ends, weighted by w
+    private static <T> void computeLinkLengths(final List<T> links, final double w, final NeighbourCountFunction f,
+                                               final LinkLengthAccessor<T> la)
+    {
+        int n = 0;
+        for (final T l : links) {
+            n = Math.max(n, 1 + Math.max(la.getSourceIndex(l), la.getTargetIndex(l)));
+        }
+        final CsrGraph graph = new CsrGraph(n, links, la::getSourceIndex, la::getTargetIndex, l -> 1);
+
+        // sort each row and drop repeated neighbours, leaving the distinct neighbours of u at targets[offsets[u]] .. targets[end[u] - 1]
+        final int[] neighbours = graph.targets.clone(), end = new int[n];
+        for (int u = 0; u < n; ++u) {
+            final int from = graph.offsets[u], to = graph.offsets[u + 1];
+            Arrays.sort(neighbours, from, to);
+            int k = from;
+            for (int i = from; i < to; ++i) {
+                if (k == from || neighbours[k - 1] != neighbours[i]) {
+                    neighbours[k++] = neighbours[i];
+                }
+            }
+            end[u] = k;
+        }
+
+        for (final T l : links) {
+            final int u = la.getSourceIndex(l), v = la.getTargetIndex(l);
+            int i = graph.offsets[u], j = graph.offsets[v], common = 0;
+            while (i < end[u] && j < end[v]) {
+                if (neighbours[i] < neighbours[j]) {
+                    ++i;
+                } else if (neighbours[i] > neighbours[j]) {
+                    ++j;
+                } else {
+                    ++common;
+                    ++i;
+                    ++j;
+                }
+            }
+            la.setLength(l, 1 + w * f.applyAsDouble(end[u] - graph.offsets[u], end[v] - graph.offsets[v], common));
+        }
+    }
+
     public static <T> void symmetricDiffLinkLengths(final List<T> links, final LinkLengthAccessor<T> la) {
         LinkLengths.symmetricDiffLinkLengths(links, la, 1);
     }
@@ -69,7 +112,7 @@ public class LinkLengths {
      *
      */
     public static <T> void symmetricDiffLinkLengths(final List<T> links, final LinkLengthAccessor<T> la, final double w) {
-        computeLinkLengths(links, w, (a, b) -> Math.sqrt(unionCount(a, b) - intersectionCount(a, b)), la);
+        computeLinkLengths(links, w, (a, b, common) -> Math.sqrt(a + b - 2 * common), la);
     }
 
     public static <T> void jaccardLinkLengths(final List<T> links, final LinkLengthAccessor<T> la) {
@@ -78,8 +121,8 @@ public class LinkLengths {
 
     /** modify the specified links lengths based on the jaccard difference between their neighbours */
     public static <T> void jaccardLinkLengths(final List<T> links, final LinkLengthAccessor<T> la, final double w) {
-        computeLinkLengths(links, w, (a, b) ->
-                1.1 > Math.min(a.keySet().size(), b.keySet().size()) ? 0 : intersectionCount(a, b) / unionCount(a, b)
+        computeLinkLengths(links, w, (a, b, common) ->
+                1.1 > Math.min(a, b) ? 0 : common / (a + b - common)
                 , la);
     }
 
@@ -98,7 +141,7 @@ public class LinkLengths {
     }
 
     /** generate separation constraints for all edges unless both their source and sink are in the same strongly connected component */
-    public static <T> List<Constraint> generateDirectedEdgeConstraints(final int n, final List<T> links, final String axis,
+    public static <T> List<Constraint> generateDirectedEdgeConstraints(final int n, final List<T> links, final ConstraintAxis axis,
                                                                        final LinkSepAccessor<T> la)
     {
         final List<List<Integer>> components = stronglyConnectedComponents(n, links, la);
@@ -30,6 +30,14 @@ public class LongestCommonSubsequence<T> extends Match {
         }
     }
 
+    /** a match already found, by PathIndex */
+    LongestCommonSubsequence(final List<T> s, final int length, final int si, final int ti, final boolean reversed) {
+        super(length, si, ti);
+        //noinspection AssignmentToCollectionOrArrayFieldFromParameter
+        this.s = s;
+        this.reversed = reversed;
+    }
+
     private static <T> Match findMatch(final List<T> s, final List<T> t) {
         final int m = s.size();
         final int n = t.size();
@@ -0,0 +1,341 @@
+package edu.monash.infotech.marvl.cola;
+
+import edu.monash.infotech.marvl.cola.shortestpaths.Calculator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Multilevel initial placement.  The graph is coarsened by repeatedly contracting a matching of its edges, the coarsest graph is laid out
+ * with stress descent, then positions are prolonged back down through the levels with a few refinement iterations at each.  The original
+ * graph itself is left for the caller to refine.
+ * <p/>
+ * Fixed nodes are never contracted and stay at their positions on every level, and only nodes with the same parent group are contracted
+ * together so that groups stay compact.
+ */
+public class Multilevel {
+
+    /** coarsening stops at this many nodes, or when a matching no longer shrinks the graph by a tenth */
+    public int          minNodes           = 50;
+    public int          coarsestIterations = 100;
+    public int          refineIterations   = 10;
+    /** levels with more nodes than this are refined with sparse stress rather than full stress */
+    public int          denseLimit         = 1000;
+    public int          pivots             = 50;
+    public ForkJoinPool pool               = null;
+
+    /** time spent on each level in the last call to layout, coarsest first */
+    public List<MultilevelTiming> timings = new ArrayList<>();
+
+    private final PseudoRandom random = new PseudoRandom();
+
+    private static class Level {
+
+        int      n;
+        int[]    sources;
+        int[]    targets;
+        double[] lengths;
+        boolean[] fixed;
+        int[]    group;
+        double[] x;
+        double[] y;
+        boolean[] hasPosition;
+        // index of the node in the next coarser level that each node of this level is contracted into
+        int[]    coarse;
+        // for contracted pairs, the other node of the pair, otherwise -1
+        int[]    mate;
+        // for contracted pairs, the length of the edge between them
+        double[] mateLength;
+        long     nanos;
+
+        Level(final int n) {
+            this.n = n;
+            this.fixed = new boolean[n];
+            this.group = new int[n];
+            this.x = new double[n];
+            this.y = new double[n];
+            this.hasPosition = new boolean[n];
+        }
+    }
+
+    /**
+     * compute positions for the non-fixed nodes of a graph
+     *
+     * @param sources     source node index of each link
+     * @param targets     target node index of each link
+     * @param lengths     ideal length of each link
+     * @param fixed       nodes that must not move, they must have a position
+     * @param group       an id for the parent group of each node, nodes are only contracted with others of the same group
+     * @param x           node x positions, read for nodes that have a position and written for non-fixed nodes
+     * @param y           node y positions, as for x
+     * @param hasPosition nodes whose starting x and y are meaningful
+     */
+    public void layout(final int[] sources, final int[] targets, final double[] lengths, final boolean[] fixed, final int[] group,
+                       final double[] x, final double[] y, final boolean[] hasPosition)
+    {
+        this.timings = new ArrayList<>();
+        final int n = x.length;
+        final Level finest = new Level(n);
+        finest.sources = sources;
+        finest.targets = targets;
+        finest.lengths = lengths;
+        System.arraycopy(fixed, 0, finest.fixed, 0, n);
+        System.arraycopy(group, 0, finest.group, 0, n);
+        System.arraycopy(x, 0, finest.x, 0, n);
+        System.arraycopy(y, 0, finest.y, 0, n);
+        System.arraycopy(hasPosition, 0, finest.hasPosition, 0, n);
+
+        final List<Level> levels = new ArrayList<>();
+        levels.add(finest);
+        Level level = finest;
+        long t0 = System.nanoTime();
+        while (level.n > this.minNodes) {
+            final Level coarser = this.coarsen(level);
+            if (coarser.n > 0.9 * level.n) {
+                break;
+            }
+            final long t1 = System.nanoTime();
+            level.nanos += t1 - t0;
+            t0 = t1;
+            levels.add(coarser);
+            level = coarser;
+        }
+
+        // with a single level there is nothing to gain from laying it out here
+        this.initialPlacement(level);
+        int iterations = 1 < levels.size() ? this.coarsestIterations : 0;
+        for (int l = levels.size() - 1; 0 <= l; --l) {
+            level = levels.get(l);
+            if (l < levels.size() - 1) {
+                this.prolong(levels.get(l + 1), level);
+                iterations = 0 < l ? this.refineIterations : 0;
+            }
+            if (0 < iterations) {
+                this.refine(level, iterations);
+            }
+            final long t1 = System.nanoTime();
+            level.nanos += t1 - t0;
+            t0 = t1;
+            this.timings.add(new MultilevelTiming(l, level.n, level.sources.length, iterations, level.nanos));
+        }
+
+        for (int i = 0; i < n; ++i) {
+            if (!fixed[i]) {
+                x[i] = finest.x[i];
+                y[i] = finest.y[i];
+            }
+        }
+    }
+
+    // contract a matching of edges, preferring short edges, between non-fixed nodes of the same group
+    private Level coarsen(final Level fine) {
+        final int n = fine.n, m = fine.sources.length;
+        final int[] degree = new int[n + 1];
+        for (int e = 0; e < m; ++e) {
+            ++degree[fine.sources[e] + 1];
+            ++degree[fine.targets[e] + 1];
+        }
+        for (int u = 0; u < n; ++u) {
+            degree[u + 1] += degree[u];
+        }
+        final int[] adjacent = new int[2 * m], fill = degree.clone();
+        for (int e = 0; e < m; ++e) {
+            adjacent[fill[fine.sources[e]]++] = e;
+            adjacent[fill[fine.targets[e]]++] = e;
+        }
+
+        final int[] order = new int[n];
+        for (int i = 0; i < n; ++i) {
+            order[i] = i;
+        }
+        for (int i = n - 1; 0 < i; --i) {
+            final int j = (int)((this.random.getNext() + this.random.getNext() / 32768) * (i + 1)) % (i + 1);
+            final int t = order[i];
+            order[i] = order[j];
+            order[j] = t;
+        }
+
+        final int[] mate = new int[n];
+        Arrays.fill(mate, -1);
+        final double[] mateLength = new double[n];
+        for (final int u : order) {
+            if (-1 != mate[u] || fine.fixed[u]) {
+                continue;
+            }
+            int best = -1;
+            double bestLength = Double.POSITIVE_INFINITY;
+            for (int i = degree[u]; i < degree[u + 1]; ++i) {
+                final int e = adjacent[i];
+                final int v = fine.sources[e] == u ? fine.targets[e] : fine.sources[e];
+                if (v != u && -1 == mate[v] && !fine.fixed[v] && fine.group[v] == fine.group[u] && fine.lengths[e] < bestLength) {
+                    best = v;
+                    bestLength = fine.lengths[e];
+                }
+            }
+            if (-1 != best) {
+                mate[u] = best;
+                mate[best] = u;
+                mateLength[u] = mateLength[best] = bestLength;
+            }
+        }
+
+        final int[] coarse = new int[n];
+        Arrays.fill(coarse, -1);
+        int count = 0;
+        for (int u = 0; u < n; ++u) {
+            if (-1 == coarse[u]) {
+                coarse[u] = count;
+                if (-1 != mate[u]) {
+                    coarse[mate[u]] = count;
+                }
+                ++count;
+            }
+        }
+        fine.coarse = coarse;
+        fine.mate = mate;
+        fine.mateLength = mateLength;
+
+        final Level c = new Level(count);
+        final int[] members = new int[count];
+        for (int u = 0; u < n; ++u) {
+            final int v = coarse[u];
+            c.fixed[v] = fine.fixed[u];
+            c.group[v] = fine.group[u];
+            if (fine.hasPosition[u]) {
+                c.x[v] += fine.x[u];
+                c.y[v] += fine.y[u];
+                ++members[v];
+                c.hasPosition[v] = true;
+            }
+        }
+        for (int v = 0; v < count; ++v) {
+            if (0 < members[v]) {
+                c.x[v] /= members[v];
+                c.y[v] /= members[v];
+            }
+        }
+
+        // merge parallel edges, lengthening them by the offset of the contracted pairs from their centres
+        final Map<Long, Integer> edgeIndex = new HashMap<>();
+        final List<int[]> ends = new ArrayList<>();
+        final List<double[]> sums = new ArrayList<>();
+        for (int e = 0; e < m; ++e) {
+            final int a = coarse[fine.sources[e]], b = coarse[fine.targets[e]];
+            if (a == b) {
+                continue;
+            }
+            final long key = (long)Math.min(a, b) * count + Math.max(a, b);
+            Integer i = edgeIndex.get(key);
+            if (null == i) {
+                i = ends.size();
+                edgeIndex.put(key, i);
+                ends.add(new int[] {a, b});
+                sums.add(new double[2]);
+            }
+            final double[] s = sums.get(i);
+            s[0] += fine.lengths[e];
+            ++s[1];
+        }
+        final double[] offset = new double[count];
+        for (int u = 0; u < n; ++u) {
+            if (-1 != mate[u]) {
+                offset[coarse[u]] = mateLength[u] / 2;
+            }
+        }
+        final int cm = ends.size();
+        c.sources = new int[cm];
+        c.targets = new int[cm];
+        c.lengths = new double[cm];
+        for (int e = 0; e < cm; ++e) {
+            final int a = ends.get(e)[0], b = ends.get(e)[1];
+            final double[] s = sums.get(e);
+            c.sources[e] = a;
+            c.targets[e] = b;
+            c.lengths[e] = s[0] / s[1] + (offset[a] + offset[b]) / 2;
+        }
+        return c;
+    }
+
+    // nodes of the coarsest level without a position are scattered over an area in proportion to the graph size
+    private void initialPlacement(final Level level) {
+        double mean = 0;
+        for (final double l : level.lengths) {
+            mean += l;
+        }
+        mean = 0 < level.lengths.length ? mean / level.lengths.length : 1;
+        final double extent = mean * Math.sqrt(level.n);
+        double cx = 0, cy = 0;
+        int positioned = 0;
+        for (int i = 0; i < level.n; ++i) {
+            if (level.hasPosition[i]) {
+                cx += level.x[i];
+                cy += level.y[i];
+                ++positioned;
+            }
+        }
+        if (0 < positioned) {
+            cx /= positioned;
+            cy /= positioned;
+        }
+        for (int i = 0; i < level.n; ++i) {
+            if (!level.hasPosition[i]) {
+                level.x[i] = cx + extent * (this.random.getNext() - 0.5);
+                level.y[i] = cy + extent * (this.random.getNext() - 0.5);
+            }
+        }
+    }
+
+    // place the nodes of the finer level at the position of the node they were contracted into, with contracted pairs
+    // separated by their edge length in a random direction
+    private void prolong(final Level coarse, final Level fine) {
+        for (int u = 0; u < fine.n; ++u) {
+            if (fine.fixed[u]) {
+                continue;
+            }
+            final int c = fine.coarse[u], v = fine.mate[u];
+            // the higher node of a pair was placed with the lower one
+            if (-1 != v && v < u) {
+                continue;
+            }
+            fine.x[u] = coarse.x[c];
+            fine.y[u] = coarse.y[c];
+            if (v > u) {
+                final double angle = 2 * Math.PI * this.random.getNext();
+                final double r = fine.mateLength[u] / 2;
+                fine.x[u] += r * Math.cos(angle);
+                fine.y[u] += r * Math.sin(angle);
+                fine.x[v] = coarse.x[c] - r * Math.cos(angle);
+                fine.y[v] = coarse.y[c] - r * Math.sin(angle);
+            }
+        }
+    }
+
+    private void refine(final Level level, final int iterations) {
+        final List<Integer> edges = IntStream.range(0, level.sources.length).boxed().collect(Collectors.toList());
+        final double[][] x = new double[][] {level.x, level.y};
+        final Descent descent;
+        if (level.n > this.denseLimit) {
+            final SparseDescent sparse = new SparseDescent(x, edges, e -> level.sources[e], e -> level.targets[e], e -> level.lengths[e],
+                                                           this.pivots);
+            sparse.pStress = true;
+            descent = sparse;
+        } else {
+            final double[][] D = new Calculator<>(level.n, edges, e -> level.sources[e], e -> level.targets[e], e -> level.lengths[e])
+                    .DistanceMatrix(this.pool);
+            descent = new Descent(x, D);
+        }
+        descent.pool = this.pool;
+        for (int i = 0; i < level.n; ++i) {
+            if (level.fixed[i]) {
+                descent.locks.add(i, new double[] {level.x[i], level.y[i]});
+            }
+        }
+        descent.run(iterations);
+    }
+}
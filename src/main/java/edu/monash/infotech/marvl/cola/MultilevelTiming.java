@@ -0,0 +1,15 @@
+package edu.monash.infotech.marvl.cola;
+
+import lombok.AllArgsConstructor;
+
+/** time spent on one level of a multilevel layout */
+@AllArgsConstructor
+public class MultilevelTiming {
+
+    /** 0 is the original graph, higher levels are coarser */
+    public int  level;
+    public int  nodes;
+    public int  links;
+    public int  iterations;
+    public long nanos;
+}
@@ -0,0 +1,8 @@
+package edu.monash.infotech.marvl.cola;
+
+@FunctionalInterface
+public interface NeighbourCountFunction {
+
+    /** Applies this function to the sizes of two neighbour sets a and b and the size of their intersection. */
+    double applyAsDouble(int a, int b, int common);
+}
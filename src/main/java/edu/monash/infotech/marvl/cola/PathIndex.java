@@ -0,0 +1,168 @@
+package edu.monash.infotech.marvl.cola;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index from the vertices of a set of paths to the paths through them, for finding the longest run of vertices two paths have in
+ * common, in either direction, as LongestCommonSubsequence does.  Only paths that share a vertex need be compared, and a comparison walks
+ * one path and the runs starting at each of its vertices in the other, rather than filling a table of every pair of positions.
+ * <p/>
+ * Vertices are the same if they are the same object.  Paths may be reversed in place after they are indexed, as long as reverse is
+ * called for them.
+ */
+class PathIndex {
+
+    // vertex number at each position of each path, in the order the path had when it was indexed
+    private final int[][]   ids;
+    private final boolean[] flipped;
+    // the paths through vertex x are paths[offsets[x] .. offsets[x + 1] - 1], in increasing order, once for each time they pass x
+    private final int[]     offsets;
+    private final int[]     paths;
+
+    // the path compared with the others: its last position at each vertex, or -1, and the position before that with the same vertex
+    private       int       current = -1;
+    private final int[]     last;
+    private       int[]     previous = new int[0];
+    // paths found to share a vertex with the selected path, marked by stamp
+    private final int[]     stamp;
+    private final int[]     sharing;
+
+    PathIndex(final List<? extends List<?>> routes) {
+        final int n = routes.size();
+        final Map<Object, Integer> number = new IdentityHashMap<>();
+        this.ids = new int[n][];
+        this.flipped = new boolean[n];
+        int count = 0;
+        for (int p = 0; p < n; p++) {
+            final List<?> route = routes.get(p);
+            this.ids[p] = new int[route.size()];
+            for (int k = 0; k < route.size(); k++) {
+                Integer x = number.get(route.get(k));
+                if (null == x) {
+                    x = count++;
+                    number.put(route.get(k), x);
+                }
+                this.ids[p][k] = x;
+            }
+        }
+        this.offsets = new int[count + 1];
+        for (final int[] path : this.ids) {
+            for (final int x : path) {
+                ++this.offsets[x + 1];
+            }
+        }
+        for (int x = 0; x < count; x++) {
+            this.offsets[x + 1] += this.offsets[x];
+        }
+        this.paths = new int[this.offsets[count]];
+        final int[] fill = Arrays.copyOf(this.offsets, count);
+        for (int p = 0; p < n; p++) {
+            for (final int x : this.ids[p]) {
+                this.paths[fill[x]++] = p;
+            }
+        }
+        this.last = new int[count];
+        Arrays.fill(this.last, -1);
+        this.stamp = new int[n];
+        this.sharing = new int[n];
+    }
+
+    /** record that path p has been reversed in place */
+    void reverse(final int p) {
+        this.flipped[p] = !this.flipped[p];
+        if (p == this.current) {
+            this.select(p);
+        }
+    }
+
+    /**
+     * make path i the one compared with the others
+     *
+     * @return the paths after i that share a vertex with it, in increasing order
+     */
+    int[] select(final int i) {
+        if (0 <= this.current) {
+            for (final int x : this.ids[this.current]) {
+                this.last[x] = -1;
+            }
+        }
+        this.current = i;
+        final int m = this.ids[i].length;
+        if (this.previous.length < m) {
+            this.previous = new int[m];
+        }
+        for (int a = 0; a < m; a++) {
+            final int x = this.vertex(i, a);
+            this.previous[a] = this.last[x];
+            this.last[x] = a;
+        }
+
+        int count = 0;
+        for (final int x : this.ids[i]) {
+            for (int k = this.offsets[x]; k < this.offsets[x + 1]; k++) {
+                final int j = this.paths[k];
+                if (j > i && this.stamp[j] != i + 1) {
+                    this.stamp[j] = i + 1;
+                    this.sharing[count++] = j;
+                }
+            }
+        }
+        final int[] result = Arrays.copyOf(this.sharing, count);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * the longest run of vertices that the selected path e has in common with path j, which is f
+     *
+     * @return the same match as new LongestCommonSubsequence(e, f)
+     */
+    <T> LongestCommonSubsequence<T> commonSubpath(final List<T> e, final int j) {
+        final int i = this.current, m = this.ids[i].length, n = this.ids[j].length;
+        // the run with f forwards and the run with f backwards, each the first found in the order LongestCommonSubsequence finds them
+        int length = 0, si = -1, ti = -1;
+        int rlength = 0, rsi = -1, rti = -1;
+        for (int b = 0; b < n; b++) {
+            final int x = this.vertex(j, b);
+            for (int a = this.last[x]; 0 <= a; a = this.previous[a]) {
+                // a run forwards through f starting at (a, b)
+                if (0 == a || 0 == b || this.vertex(i, a - 1) != this.vertex(j, b - 1)) {
+                    int l = 1;
+                    while (a + l < m && b + l < n && this.vertex(i, a + l) == this.vertex(j, b + l)) {
+                        l++;
+                    }
+                    if (l > length || l == length && (a < si || a == si && b < ti)) {
+                        length = l;
+                        si = a;
+                        ti = b;
+                    }
+                }
+                // a run backwards through f starting at (a, b), which is at n - 1 - b in f reversed
+                if (0 == a || n - 1 == b || this.vertex(i, a - 1) != this.vertex(j, b + 1)) {
+                    int l = 1;
+                    while (a + l < m && 0 <= b - l && this.vertex(i, a + l) == this.vertex(j, b - l)) {
+                        l++;
+                    }
+                    final int tr = n - 1 - b;
+                    if (l > rlength || l == rlength && (a < rsi || a == rsi && tr < rti)) {
+                        rlength = l;
+                        rsi = a;
+                        rti = tr;
+                    }
+                }
+            }
+        }
+        if (length >= rlength) {
+            return new LongestCommonSubsequence<>(e, length, si, ti, false);
+        }
+        return new LongestCommonSubsequence<>(e, rlength, rsi, n - rti - rlength, true);
+    }
+
+    private int vertex(final int p, final int k) {
+        final int[] path = this.ids[p];
+        return this.flipped[p] ? path[path.length - 1 - k] : path[k];
+    }
+}
@@ -0,0 +1,224 @@
+package edu.monash.infotech.marvl.cola;
+
+import edu.monash.infotech.marvl.cola.shortestpaths.Calculator;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * Pivot MDS, after Brandes and Pich "Eigensolver Methods for Progressive Multidimensional Scaling of Large Data".
+ * <p/>
+ * Shortest path distances are computed only from a few pivot nodes. The double centred n x k matrix C of squared distances to the pivots
+ * is projected onto the top eigenvectors of the small k x k matrix C'C, found by power iteration. This gives a layout close to classical
+ * MDS in O(k.m) for the shortest paths plus O(n.k^2) for the eigen-solve, which makes a good starting point for stress descent.
+ */
+public class PivotMDS {
+
+    private static final int    MAX_POWER_ITERATIONS = 200;
+    private static final double POWER_TOLERANCE      = 1e-9;
+
+    /**
+     * choose pivots by max-min distance, starting from node 0: each pivot is the node furthest from all the pivots chosen before it.
+     *
+     * @param distances on return holds the distances from each pivot to every node, must have length k
+     * @param region    if not null, on return holds for each node the index in the pivots of the first of those nearest to it
+     * @return the pivots
+     */
+    static <T> int[] selectPivots(final Calculator<T> calc, final int n, final double[][] distances, final int[] region) {
+        final int k = distances.length;
+        final int[] pivots = new int[k];
+        final double[] minDistance = new double[n];
+        Arrays.fill(minDistance, Double.POSITIVE_INFINITY);
+        if (null != region) {
+            Arrays.fill(region, 0);
+        }
+        int next = 0;
+        for (int p = 0; p < k; ++p) {
+            pivots[p] = next;
+            final double[] d = distances[p] = calc.DistancesFromNode(next);
+            double furthest = -1;
+            for (int u = 0; u < n; ++u) {
+                if (d[u] < minDistance[u]) {
+                    minDistance[u] = d[u];
+                    if (null != region) {
+                        region[u] = p;
+                    }
+                }
+                if (minDistance[u] > furthest) {
+                    furthest = minDistance[u];
+                    next = u;
+                }
+            }
+        }
+        return pivots;
+    }
+
+    /**
+     * @param n           number of nodes
+     * @param links       graph edges, each with an ideal length
+     * @param sourceIndex function to get the index of the source node of a link
+     * @param targetIndex function to get the index of the target node of a link
+     * @param length      function to get the ideal length of a link
+     * @param pivotCount  number of pivots
+     * @return node coordinates as {x, y}, centred on the origin and scaled so that links best fit their ideal lengths
+     */
+    public static <T> double[][] layout(final int n, final List<T> links, final ToIntFunction<T> sourceIndex,
+                                        final ToIntFunction<T> targetIndex, final ToDoubleFunction<T> length, final int pivotCount)
+    {
+        final int k = Math.max(0, Math.min(pivotCount, n));
+        final double[][] result = new double[2][n];
+        if (2 > k) {
+            return result;
+        }
+        final Calculator<T> calc = new Calculator<>(n, links, sourceIndex, targetIndex, length);
+        final double[][] C = new double[k][0];
+        PivotMDS.selectPivots(calc, n, C, null);
+
+        // pairs in different components are treated as slightly further apart than the most distant connected pair
+        double maxDistance = 0;
+        for (final double[] row : C) {
+            for (final double d : row) {
+                if (Double.isFinite(d)) {
+                    maxDistance = Math.max(maxDistance, d);
+                }
+            }
+        }
+        final double unreachable = 0 < maxDistance ? 1.1 * maxDistance : 1;
+
+        // double centre the squared distances, C is stored by pivot (column)
+        final double[] rowMean = new double[n];
+        double mean = 0;
+        for (int p = 0; p < k; ++p) {
+            final double[] c = C[p];
+            double colMean = 0;
+            for (int u = 0; u < n; ++u) {
+                final double d = Double.isFinite(c[u]) ? c[u] : unreachable;
+                c[u] = d * d;
+                colMean += c[u];
+                rowMean[u] += c[u] / k;
+            }
+            colMean /= n;
+            mean += colMean / k;
+            for (int u = 0; u < n; ++u) {
+                c[u] -= colMean;
+            }
+        }
+        for (int p = 0; p < k; ++p) {
+            final double[] c = C[p];
+            for (int u = 0; u < n; ++u) {
+                c[u] = -0.5 * (c[u] - rowMean[u] + mean);
+            }
+        }
+
+        // k x k matrix C'C
+        final double[][] M = new double[k][k];
+        for (int p = 0; p < k; ++p) {
+            for (int q = p; q < k; ++q) {
+                double s = 0;
+                for (int u = 0; u < n; ++u) {
+                    s += C[p][u] * C[q][u];
+                }
+                M[p][q] = M[q][p] = s;
+            }
+        }
+
+        // top two eigenvectors, the second kept orthogonal to the first
+        final double[][] V = new double[2][k];
+        for (int dim = 0; dim < 2; ++dim) {
+            final double[] v = V[dim];
+            for (int p = 0; p < k; ++p) {
+                v[p] = 0 == (p + dim) % 2 ? 1 + p : -1 - p;
+            }
+            PivotMDS.powerIteration(M, v, Arrays.copyOf(V, dim));
+        }
+
+        // project and centre
+        for (int dim = 0; dim < 2; ++dim) {
+            final double[] x = result[dim];
+            double centre = 0;
+            for (int u = 0; u < n; ++u) {
+                double s = 0;
+                for (int p = 0; p < k; ++p) {
+                    s += C[p][u] * V[dim][p];
+                }
+                x[u] = s;
+                centre += s / n;
+            }
+            for (int u = 0; u < n; ++u) {
+                x[u] -= centre;
+            }
+        }
+
+        // least squares fit of the link lengths
+        double ld = 0, dd = 0;
+        for (final T l : links) {
+            final int u = sourceIndex.applyAsInt(l), v = targetIndex.applyAsInt(l);
+            final double dx = result[0][u] - result[0][v], dy = result[1][u] - result[1][v];
+            final double d = Math.sqrt(dx * dx + dy * dy);
+            ld += length.applyAsDouble(l) * d;
+            dd += d * d;
+        }
+        if (0 < dd) {
+            final double scale = ld / dd;
+            for (final double[] x : result) {
+                for (int u = 0; u < n; ++u) {
+                    x[u] *= scale;
+                }
+            }
+        }
+        return result;
+    }
+
+    // power iteration for the dominant eigenvector of symmetric M orthogonal to the given (unit) vectors, v is updated in place
+    private static void powerIteration(final double[][] M, final double[] v, final double[][] orthogonalTo) {
+        final int k = v.length;
+        final double[] w = new double[k];
+        PivotMDS.orthonormalise(v, orthogonalTo);
+        for (int iteration = 0; iteration < MAX_POWER_ITERATIONS; ++iteration) {
+            for (int p = 0; p < k; ++p) {
+                double s = 0;
+                for (int q = 0; q < k; ++q) {
+                    s += M[p][q] * v[q];
+                }
+                w[p] = s;
+            }
+            if (0 == PivotMDS.orthonormalise(w, orthogonalTo)) {
+                return;
+            }
+            double change = 0;
+            for (int p = 0; p < k; ++p) {
+                change += Math.abs(w[p] - v[p]);
+                v[p] = w[p];
+            }
+            if (change < POWER_TOLERANCE) {
+                return;
+            }
+        }
+    }
+
+    // remove the components along the given unit vectors and normalise, returning the length before normalisation
+    private static double orthonormalise(final double[] v, final double[][] orthogonalTo) {
+        for (final double[] u : orthogonalTo) {
+            double dot = 0;
+            for (int p = 0; p < v.length; ++p) {
+                dot += u[p] * v[p];
+            }
+            for (int p = 0; p < v.length; ++p) {
+                v[p] -= dot * u[p];
+            }
+        }
+        double norm = 0;
+        for (final double x : v) {
+            norm += x * x;
+        }
+        norm = Math.sqrt(norm);
+        if (0 < norm) {
+            for (int p = 0; p < v.length; ++p) {
+                v[p] /= norm;
+            }
+        }
+        return norm;
+    }
+}
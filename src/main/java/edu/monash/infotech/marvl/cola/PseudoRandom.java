@@ -16,6 +16,11 @@ public class PseudoRandom {
         this.seed = seed;
     }
 
+    // restart the stream as if newly made with seed
+    void setSeed(final long seed) {
+        this.seed = seed;
+    }
+
     // random real between 0 and 1
     public double getNext() {
         seed = (seed * a + c) % m;
@@ -0,0 +1,44 @@
+package edu.monash.infotech.marvl.cola;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork-join task that applies a body to a range of indices, splitting the range in halves until the pieces are no larger than the grain
+ * size. The body is responsible for writing only to the indices it is given.
+ */
+public class RangeTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int              from;
+    private final int              to;
+    private final int              grain;
+    private final IntRangeConsumer body;
+
+    public RangeTask(final int from, final int to, final int grain, final IntRangeConsumer body) {
+        this.from = from;
+        this.to = to;
+        this.grain = Math.max(1, grain);
+        this.body = body;
+    }
+
+    /** apply body to the indices [0, n) in pool, with a grain size giving a few pieces per worker thread */
+    public static void forEach(final ForkJoinPool pool, final int n, final IntRangeConsumer body) {
+        if (0 >= n) {
+            return;
+        }
+        pool.invoke(new RangeTask(0, n, n / (8 * pool.getParallelism()), body));
+    }
+
+    @Override
+    protected void compute() {
+        if (this.to - this.from <= this.grain) {
+            this.body.accept(this.from, this.to);
+        } else {
+            final int mid = (this.from + this.to) >>> 1;
+            RecursiveAction.invokeAll(new RangeTask(this.from, mid, this.grain, this.body),
+                                      new RangeTask(mid, this.to, this.grain, this.body));
+        }
+    }
+}
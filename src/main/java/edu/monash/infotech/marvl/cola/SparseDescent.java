@@ -0,0 +1,356 @@
+package edu.monash.infotech.marvl.cola;
+
+import edu.monash.infotech.marvl.cola.shortestpaths.Calculator;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * Sparse stress descent, after Ortmann, Klimenta and Brandes "A Sparse Stress Model".
+ * <p/>
+ * Instead of a term for every pair of nodes, each node has exact terms for its graph neighbours plus one term towards each of a small set
+ * of pivot nodes that are not its neighbours. The pivots are chosen by max-min distance and the term towards pivot p is weighted by the
+ * number of nodes in the region of p (the nodes closer to p than to any other pivot) that are within half the distance to p, so that a
+ * pivot stands in for the nodes around it. Each iteration is O(k.(m + n.pivots)) rather than O(k.n^2), and no n x n matrix is ever
+ * allocated.
+ */
+public class SparseDescent extends Descent {
+
+    /** if true, pivot terms only repel: pairs further apart than their ideal distance make no contribution (p-stress) */
+    public boolean pStress = false;
+
+    /** the chosen pivot nodes */
+    public int[] pivots;
+
+    // terms stored by row: termStart[u] .. pivotStart[u] are symmetric terms (edges and attractions, stored in both
+    // rows), pivotStart[u] .. termStart[u + 1] are terms from u towards pivots
+    private int[]    termStart;
+    private int[]    pivotStart;
+    private int[]    termNode;
+    private double[] termD;
+    private double[] termW;
+
+    // pending symmetric terms, merged into the rows on first use
+    private int      numPending = 0;
+    private int[]    pendingU   = new int[0];
+    private int[]    pendingV   = new int[0];
+    private double[] pendingD   = new double[0];
+    private double[] pendingW   = new double[0];
+
+    /**
+     * @param x           initial coordinates for nodes
+     * @param links       graph edges, each with an ideal length
+     * @param sourceIndex function to get the index of the source node of a link
+     * @param targetIndex function to get the index of the target node of a link
+     * @param length      function to get the ideal length of a link
+     * @param pivotCount  number of pivot nodes, at most the number of nodes
+     */
+    public <T> SparseDescent(final double[][] x, final List<T> links, final ToIntFunction<T> sourceIndex, final ToIntFunction<T> targetIndex,
+                             final ToDoubleFunction<T> length, final int pivotCount)
+    {
+        super(x, null, null, true);
+        final int n = this.n;
+        final Calculator<T> calc = new Calculator<>(n, links, sourceIndex, targetIndex, length);
+
+        // neighbour terms, keeping the shortest of any parallel links
+        final int[] degree = new int[n];
+        for (final T l : links) {
+            final int u = sourceIndex.applyAsInt(l), v = targetIndex.applyAsInt(l);
+            if (u != v) {
+                ++degree[u];
+                ++degree[v];
+            }
+        }
+        final int[] edgeStart = new int[n + 1];
+        for (int u = 0; u < n; ++u) {
+            edgeStart[u + 1] = edgeStart[u] + degree[u];
+        }
+        final int[] edgeNode = new int[edgeStart[n]];
+        final double[] edgeD = new double[edgeStart[n]];
+        final int[] fillEdge = Arrays.copyOf(edgeStart, n);
+        for (final T l : links) {
+            final int u = sourceIndex.applyAsInt(l), v = targetIndex.applyAsInt(l);
+            if (u == v) {
+                continue;
+            }
+            final double d = length.applyAsDouble(l);
+            edgeNode[fillEdge[u]] = v;
+            edgeD[fillEdge[u]++] = d;
+            edgeNode[fillEdge[v]] = u;
+            edgeD[fillEdge[v]++] = d;
+        }
+
+        // max-min pivot selection, starting from node 0, with the region of each node the pivot nearest to it
+        final int k = Math.max(0, Math.min(pivotCount, n));
+        final double[][] pivotDistances = new double[k][0];
+        final int[] region = new int[n];
+        this.pivots = PivotMDS.selectPivots(calc, n, pivotDistances, region);
+
+        // distances from each pivot to the members of its region, sorted, for the region weights
+        final int[] regionStart = new int[k + 1];
+        final double[] regionDistances = new double[0 < k ? n : 0];
+        if (0 < k) {
+            for (int u = 0; u < n; ++u) {
+                ++regionStart[region[u] + 1];
+            }
+            for (int p = 0; p < k; ++p) {
+                regionStart[p + 1] += regionStart[p];
+            }
+            final int[] fill = Arrays.copyOf(regionStart, k);
+            for (int u = 0; u < n; ++u) {
+                regionDistances[fill[region[u]]++] = pivotDistances[region[u]][u];
+            }
+            for (int p = 0; p < k; ++p) {
+                Arrays.sort(regionDistances, regionStart[p], regionStart[p + 1]);
+            }
+        }
+
+        // assemble the rows
+        final int numTerms = edgeStart[n] + n * k;
+        this.termStart = new int[n + 1];
+        this.pivotStart = new int[n];
+        this.termNode = new int[numTerms];
+        this.termD = new double[numTerms];
+        this.termW = new double[numTerms];
+        final int[] mark = new int[n], slot = new int[n];
+        Arrays.fill(mark, -1);
+        int t = 0;
+        for (int u = 0; u < n; ++u) {
+            this.termStart[u] = t;
+            for (int e = edgeStart[u]; e < edgeStart[u + 1]; ++e) {
+                final int v = edgeNode[e];
+                if (mark[v] == u) {
+                    this.termD[slot[v]] = Math.min(this.termD[slot[v]], edgeD[e]);
+                    continue;
+                }
+                mark[v] = u;
+                slot[v] = t;
+                this.termNode[t] = v;
+                this.termD[t] = edgeD[e];
+                this.termW[t++] = 1;
+            }
+            this.pivotStart[u] = t;
+            for (int p = 0; p < k; ++p) {
+                final int v = this.pivots[p];
+                final double d = pivotDistances[p][u];
+                if (v == u || mark[v] == u || !Double.isFinite(d) || 0 >= d) {
+                    continue;
+                }
+                this.termNode[t] = v;
+                this.termD[t] = d;
+                this.termW[t++] = SparseDescent.countWithin(regionDistances, regionStart[p], regionStart[p + 1], d / 2);
+            }
+        }
+        this.termStart[n] = t;
+        this.trimTerms();
+        this.updateMinD();
+    }
+
+    // number of values in the sorted range a[from, to) that are at most x
+    private static int countWithin(final double[] a, final int from, final int to, final double x) {
+        int lo = from, hi = to;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (a[mid] <= x) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo - from;
+    }
+
+    // drop unused space left by duplicate edges and skipped pivots
+    private void trimTerms() {
+        final int t = this.termStart[this.n];
+        if (t < this.termNode.length) {
+            this.termNode = Arrays.copyOf(this.termNode, t);
+            this.termD = Arrays.copyOf(this.termD, t);
+            this.termW = Arrays.copyOf(this.termW, t);
+        }
+    }
+
+    private void updateMinD() {
+        this.minD = Double.MAX_VALUE;
+        for (final double d : this.termD) {
+            if (0 < d && d < this.minD) {
+                this.minD = d;
+            }
+        }
+        if (Double.MAX_VALUE == this.minD) {
+            this.minD = 1;
+        }
+    }
+
+    /**
+     * add a symmetric term between nodes u and v, used for example to attract group boundary dummy nodes
+     *
+     * @param d      ideal distance between u and v
+     * @param weight weighting on the contribution of the term
+     */
+    public void addAttraction(final int u, final int v, final double d, final double weight) {
+        if (this.numPending == this.pendingU.length) {
+            final int capacity = Math.max(4, 2 * this.numPending);
+            this.pendingU = Arrays.copyOf(this.pendingU, capacity);
+            this.pendingV = Arrays.copyOf(this.pendingV, capacity);
+            this.pendingD = Arrays.copyOf(this.pendingD, capacity);
+            this.pendingW = Arrays.copyOf(this.pendingW, capacity);
+        }
+        this.pendingU[this.numPending] = u;
+        this.pendingV[this.numPending] = v;
+        this.pendingD[this.numPending] = d;
+        this.pendingW[this.numPending++] = weight;
+    }
+
+    // merge pending attractions into the symmetric part of their rows
+    private void mergePending() {
+        if (0 == this.numPending) {
+            return;
+        }
+        final int n = this.n;
+        final int[] extra = new int[n];
+        for (int i = 0; i < this.numPending; ++i) {
+            ++extra[this.pendingU[i]];
+            ++extra[this.pendingV[i]];
+        }
+        final int total = this.termStart[n] + 2 * this.numPending;
+        final int[] termStart = new int[n + 1], pivotStart = new int[n], termNode = new int[total];
+        final double[] termD = new double[total], termW = new double[total];
+        final int[] fill = new int[n];
+        int t = 0;
+        for (int u = 0; u < n; ++u) {
+            termStart[u] = t;
+            final int symmetric = this.pivotStart[u] - this.termStart[u];
+            System.arraycopy(this.termNode, this.termStart[u], termNode, t, symmetric);
+            System.arraycopy(this.termD, this.termStart[u], termD, t, symmetric);
+            System.arraycopy(this.termW, this.termStart[u], termW, t, symmetric);
+            fill[u] = t + symmetric;
+            t = pivotStart[u] = fill[u] + extra[u];
+            final int directed = this.termStart[u + 1] - this.pivotStart[u];
+            System.arraycopy(this.termNode, this.pivotStart[u], termNode, t, directed);
+            System.arraycopy(this.termD, this.pivotStart[u], termD, t, directed);
+            System.arraycopy(this.termW, this.pivotStart[u], termW, t, directed);
+            t += directed;
+        }
+        termStart[n] = t;
+        for (int i = 0; i < this.numPending; ++i) {
+            final int u = this.pendingU[i], v = this.pendingV[i];
+            termNode[fill[u]] = v;
+            termD[fill[u]] = this.pendingD[i];
+            termW[fill[u]++] = this.pendingW[i];
+            termNode[fill[v]] = u;
+            termD[fill[v]] = this.pendingD[i];
+            termW[fill[v]++] = this.pendingW[i];
+        }
+        this.termStart = termStart;
+        this.pivotStart = pivotStart;
+        this.termNode = termNode;
+        this.termD = termD;
+        this.termW = termW;
+        this.numPending = 0;
+        this.updateMinD();
+    }
+
+    @Override
+    public void computeDerivatives(final double[][] x) {
+        this.mergePending();
+        super.computeDerivatives(x);
+    }
+
+    @Override
+    protected double computeDerivativesRow(final double[][] x, final int u, final double[] d, final double[] d2, final double[] Huu) {
+        int i;
+        double maxH = 0;
+        for (i = 0; i < this.k; ++i) {
+            Huu[i] = this.g[i][u] = 0;
+        }
+        final int end = this.termStart[u + 1];
+        for (int t = this.termStart[u]; t < end; ++t) {
+            final int v = this.termNode[t];
+            final double sd2 = this.separation(x, u, v, d, d2, true);
+            final double l = Math.sqrt(sd2);
+            final double D = this.termD[t];
+            if (this.pStress && t >= this.pivotStart[u] && l > D) {
+                continue;
+            }
+            final double weight = this.termW[t];
+            final double D2 = D * D;
+            final double gs = 2 * weight * (l - D) / (D2 * l);
+            final double l3 = l * l * l;
+            final double hs = 2 * -weight / (D2 * l3);
+            for (i = 0; i < this.k; ++i) {
+                this.g[i][u] += d[i] * gs;
+                Huu[i] -= hs * (l3 + D * (d2[i] - sd2) + l * sd2);
+            }
+        }
+        for (i = 0; i < this.k; ++i) {
+            this.Hdiag[i][u] = Huu[i];
+            maxH = Math.max(maxH, Huu[i]);
+        }
+        return maxH;
+    }
+
+    @Override
+    protected void hessianRightMultiplyRow(final double[][] x, final int u, final double[][] d, final double[][] r, final double[] dx,
+                                           final double[] d2)
+    {
+        int i;
+        for (i = 0; i < this.k; ++i) {
+            r[i][u] = this.Hdiag[i][u] * d[i][u];
+        }
+        final int end = this.termStart[u + 1];
+        for (int t = this.termStart[u]; t < end; ++t) {
+            final int v = this.termNode[t];
+            final double sd2 = this.separation(x, u, v, dx, d2, false);
+            final double l = Math.sqrt(sd2);
+            final double D = this.termD[t];
+            if (this.pStress && t >= this.pivotStart[u] && l > D) {
+                continue;
+            }
+            final double D2 = D * D;
+            final double l3 = l * l * l;
+            final double hs = 2 * -this.termW[t] / (D2 * l3);
+            for (i = 0; i < this.k; ++i) {
+                r[i][u] += hs * (l3 + D * (d2[i] - sd2) + l * sd2) * d[i][v];
+            }
+        }
+    }
+
+    @Override
+    public double computeStress() {
+        this.mergePending();
+        if (null != this.pool) {
+            return super.computeStress();
+        }
+        double stress = 0;
+        for (int u = 0; u < this.n; ++u) {
+            stress += this.computeStressRow(u);
+        }
+        return stress;
+    }
+
+    // symmetric terms are counted once, from their lower numbered end
+    @Override
+    protected double computeStressRow(final int u) {
+        double stress = 0;
+        final int end = this.termStart[u + 1];
+        for (int t = this.termStart[u]; t < end; ++t) {
+            final int v = this.termNode[t];
+            if (t < this.pivotStart[u] && v < u) {
+                continue;
+            }
+            double l = 0;
+            for (int i = 0; i < this.k; ++i) {
+                double dx = this.x[i][u] - this.x[i][v];
+                l += dx * dx;
+            }
+            l = Math.sqrt(l);
+            final double d = this.termD[t];
+            final double rl = d - l;
+            stress += this.termW[t] * rl * rl / (d * d);
+        }
+        return stress;
+    }
+}
@@ -0,0 +1,157 @@
+package edu.monash.infotech.marvl.cola;
+
+/**
+ * Stress reduction by stochastic gradient descent, after Zheng, Pawar and Goodman "Graph Drawing by Stochastic Gradient Descent".
+ * <p/>
+ * Rather than computing the full gradient and Hessian, each iteration (epoch) visits every pair of nodes once, in a random order, and moves
+ * the two nodes towards their ideal separation by an amount that decreases over the epochs following an exponential annealing schedule.
+ * Uses the same D, G, locks and projection as Descent, but no Hessian: working memory beyond D is O(k.n).
+ */
+public class StochasticDescent extends Descent {
+
+    /** number of epochs over which the step size is annealed, after which it stays at its minimum */
+    public int    epochs  = 30;
+    /** the final step size is epsilon times the ideal distance of the most heavily weighted pair */
+    public double epsilon = 0.1;
+
+    private int      epoch = 0;
+    private double   etaMax;
+    private double   lambda;
+    private double   etaMin;
+    private int[]    order;
+    private double[] rd;
+    private double[][] previous;
+
+    private final PseudoRandom random = new PseudoRandom();
+
+    public StochasticDescent(final double[][] x, final double[][] D) {
+        this(x, D, null);
+    }
+
+    public StochasticDescent(final double[][] x, final double[][] D, final double[][] G) {
+        super(x, D, G, true);
+        this.order = new int[this.n];
+        for (int i = 0; i < this.n; ++i) {
+            this.order[i] = i;
+        }
+        this.rd = new double[this.k];
+        this.previous = new double[this.k][this.n];
+    }
+
+    // step size schedule from the largest and smallest finite ideal distances
+    private void initSchedule() {
+        double dMin = Double.MAX_VALUE, dMax = 0;
+        for (int i = 0; i < this.n; ++i) {
+            for (int j = i + 1; j < this.n; ++j) {
+                final double d = this.D[i][j];
+                if (Double.isFinite(d) && 0 < d) {
+                    dMin = Math.min(dMin, d);
+                    dMax = Math.max(dMax, d);
+                }
+            }
+        }
+        if (0 == dMax) {
+            dMin = dMax = 1;
+        }
+        this.etaMax = dMax * dMax;
+        this.etaMin = this.epsilon * dMin * dMin;
+        this.lambda = 1 < this.epochs ? Math.log(this.etaMax / this.etaMin) / (this.epochs - 1) : 0;
+    }
+
+    private double stepSize() {
+        if (0 == this.epoch) {
+            this.initSchedule();
+        }
+        return Math.max(this.etaMin, this.etaMax * Math.exp(-this.lambda * this.epoch));
+    }
+
+    // Fisher-Yates shuffle of the node order
+    private void shuffle() {
+        int i = this.n;
+        while (1 < i) {
+            // two draws, as a single draw only has 15 bits
+            final int j = (int)((this.random.getNext() + this.random.getNext() / 32768) * i) % i;
+            final int t = this.order[--i];
+            this.order[i] = this.order[j];
+            this.order[j] = t;
+        }
+    }
+
+    /** run one epoch of SGD followed by projection against any constraints, returns the sum of squared displacements */
+    @Override
+    public double rungeKutta() {
+        final double eta = this.stepSize();
+        ++this.epoch;
+        final int n = this.n, k = this.k;
+        final double[][] x = this.x;
+        for (int i = 0; i < k; ++i) {
+            System.arraycopy(x[i], 0, this.previous[i], 0, n);
+        }
+        final boolean[] locked = new boolean[n];
+        this.locks.apply((u, p) -> locked[u] = true);
+        this.shuffle();
+        for (int a = 0; a < n; ++a) {
+            final int u = this.order[a];
+            for (int b = a + 1; b < n; ++b) {
+                final int v = this.order[b];
+                this.relax(u, v, eta, locked);
+            }
+        }
+        this.locks.apply((u, p) -> {
+            for (int i = 0; i < k; ++i) {
+                x[i][u] = p[i];
+            }
+        });
+        if (null != this.project) {
+            this.project.get(0).accept(this.previous[0], this.previous[1], x[0]);
+            this.project.get(1).accept(x[0], this.previous[1], x[1]);
+        }
+        double disp = 0;
+        for (int i = 0; i < k; ++i) {
+            for (int j = 0; j < n; ++j) {
+                final double d = this.previous[i][j] - x[i][j];
+                disp += d * d;
+            }
+        }
+        return disp;
+    }
+
+    // move u and v towards their ideal separation
+    private void relax(final int u, final int v, final double eta, final boolean[] locked) {
+        final double D = this.D[u][v];
+        if (!Double.isFinite(D) || 0 >= D || locked[u] && locked[v]) {
+            return;
+        }
+        final double[][] x = this.x;
+        int i;
+        double l2 = 0;
+        for (i = 0; i < this.k; ++i) {
+            final double dx = this.rd[i] = x[i][u] - x[i][v];
+            l2 += dx * dx;
+        }
+        if (1e-9 >= l2) {
+            // nodes at identical positions are pushed apart in a random direction
+            l2 = 0;
+            for (i = 0; i < this.k; ++i) {
+                final double dx = this.rd[i] = this.random.getNextBetween(0.01, 1) - 0.5;
+                l2 += dx * dx;
+            }
+        }
+        final double l = Math.sqrt(l2);
+        double weight = null != this.G ? this.G[u][v] : 1;
+        if (1 < weight && l > D) {
+            return;
+        }
+        if (1 < weight) {
+            weight = 1;
+        }
+        final double mu = Math.min(1, weight * eta / (D * D));
+        final double r = mu * (l - D) / (2 * l);
+        final double ru = locked[v] ? 2 * r : locked[u] ? 0 : r;
+        final double rv = locked[u] ? 2 * r : locked[v] ? 0 : r;
+        for (i = 0; i < this.k; ++i) {
+            x[i][u] -= ru * this.rd[i];
+            x[i][v] += rv * this.rd[i];
+        }
+    }
+}
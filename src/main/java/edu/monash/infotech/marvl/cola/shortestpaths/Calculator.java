@@ -1,21 +1,77 @@
 package edu.monash.infotech.marvl.cola.shortestpaths;
 
-import edu.monash.infotech.marvl.cola.PriorityQueue;
+import edu.monash.infotech.marvl.cola.CsrGraph;
+import edu.monash.infotech.marvl.cola.IndexedHeap;
+import edu.monash.infotech.marvl.cola.RangeTask;
 import edu.monash.infotech.marvl.cola.TriFunction;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.ToDoubleFunction;
 import java.util.function.ToIntFunction;
 
-/** calculates all-pairs shortest paths or shortest paths from a single node */
+/**
+ * calculates all-pairs shortest paths or shortest paths from a single node.  The graph is not modified by a search, all working state
+ * belongs to the search or to the thread running it, so DistancesFromNode, DistanceMatrix and PathFromNodeToNodeWithPrevCost may be called
+ * from several threads at once.
+ */
 public class Calculator<T> {
 
-    private Node[] neighbours;
-    public  int    n;
-    public  List<T>    es;
+    // working state of a single source search, reused across the sources searched by one thread
+    private static class Scratch {
+
+        final IndexedHeap q;
+        final int[]       prev;
+        final int[]       queue;
+
+        Scratch(final int n) {
+            this.q = new IndexedHeap(n);
+            this.prev = new int[n];
+            this.queue = new int[n];
+        }
+    }
+
+    // working state of PathFromNodeToNodeWithPrevCost, kept by each thread from one search to the next
+    private static class PathScratch {
+
+        // the first position in the graph of a link from each link's source to its target, so that parallel links share one
+        final int[]       pair;
+        // cheapest cost of each pair so far in the current search, valid where visitedStamp is the current stamp
+        final double[]    visitedCost;
+        final int[]       visitedStamp;
+        int               stamp;
+        // queue entries are numbered in the order they are pushed, each recording its node and the entry it was reached from
+        final IndexedHeap q;
+        int[]             entryNode;
+        int[]             entryPrev;
+
+        PathScratch(final CsrGraph graph) {
+            this.pair = new int[graph.targets.length];
+            for (int u = 0; u < graph.n; ++u) {
+                for (int i = graph.offsets[u]; i < graph.offsets[u + 1]; ++i) {
+                    int j = graph.offsets[u];
+                    while (graph.targets[j] != graph.targets[i]) {
+                        ++j;
+                    }
+                    this.pair[i] = j;
+                }
+            }
+            this.visitedCost = new double[graph.targets.length];
+            this.visitedStamp = new int[graph.targets.length];
+            this.q = new IndexedHeap(graph.n);
+            this.entryNode = new int[Math.max(1, graph.n)];
+            this.entryPrev = new int[Math.max(1, graph.n)];
+        }
+    }
+
+    private CsrGraph graph;
+    private final ThreadLocal<PathScratch> pathScratch = ThreadLocal.withInitial(() -> new PathScratch(this.graph));
+    // the length shared by every edge, or NaN if edges have different lengths, in which case searches fall back to Dijkstra
+    private double   uniformLength;
+    public  int      n;
+    public  List<T>  es;
 
     /**
      * @param n  {number} number of nodes
@@ -24,23 +80,28 @@ public class Calculator<T> {
     public Calculator(final int n, final List<T> es, final ToIntFunction<T> getSourceIndex, final ToIntFunction<T> getTargetIndex,
                       final ToDoubleFunction<T> getLength)
     {
-        this.n = n;
+        this(new CsrGraph(n, es, getSourceIndex, getTargetIndex, getLength), es);
+    }
+
+    /**
+     * @param graph adjacency of the nodes, with edge weights as lengths
+     * @param es    the edges the graph was built from
+     */
+    public Calculator(final CsrGraph graph, final List<T> es) {
+        this.n = graph.n;
         //noinspection AssignmentToCollectionOrArrayFieldFromParameter
         this.es = es;
-        this.neighbours = new Node[this.n];
-        int i = this.n;
-        while (0 < i--) {
-            this.neighbours[i] = new Node(i);
-        }
+        this.graph = graph;
 
-        i = this.es.size();
-        while (0 < i--) {
-            final T e = this.es.get(i);
-            final int u = getSourceIndex.applyAsInt(e);
-            final int v = getTargetIndex.applyAsInt(e);
-            final double d = getLength.applyAsDouble(e);
-            this.neighbours[u].neighbours.add(new Neighbour(v, d));
-            this.neighbours[v].neighbours.add(new Neighbour(u, d));
+        this.uniformLength = 0 < graph.weights.length ? graph.weights[0] : Double.NaN;
+        for (final double d : graph.weights) {
+            if (d != this.uniformLength) {
+                this.uniformLength = Double.NaN;
+                break;
+            }
+        }
+        if (!(0 <= this.uniformLength) || Double.isInfinite(this.uniformLength)) {
+            this.uniformLength = Double.NaN;
         }
     }
 
@@ -52,9 +113,29 @@ public class Calculator<T> {
      *
      */
     public double[][] DistanceMatrix() {
+        return this.DistanceMatrix(null);
+    }
+
+    /**
+     * all-pairs shortest paths as for DistanceMatrix(), with the sources split across the threads of pool
+     *
+     * @param pool pool to run the searches in, or null to run them in sequence on the calling thread
+     * @return the distance matrix
+     */
+    public double[][] DistanceMatrix(final ForkJoinPool pool) {
         final double[][] D = new double[this.n][0];
-        for (int i = 0; i < this.n; ++i) {
-            D[i] = this.dijkstraNeighbours(i);
+        if (null == pool) {
+            final Scratch scratch = new Scratch(this.n);
+            for (int i = 0; i < this.n; ++i) {
+                D[i] = this.dijkstraNeighbours(i, -1, scratch);
+            }
+        } else {
+            RangeTask.forEach(pool, this.n, (from, to) -> {
+                final Scratch scratch = new Scratch(this.n);
+                for (int i = from; i < to; ++i) {
+                    D[i] = this.dijkstraNeighbours(i, -1, scratch);
+                }
+            });
         }
         return D;
     }
@@ -67,11 +148,11 @@ public class Calculator<T> {
      *
      */
     public double[] DistancesFromNode(final int start) {
-        return this.dijkstraNeighbours(start);
+        return this.dijkstraNeighbours(start, -1, new Scratch(this.n));
     }
 
     public double[] PathFromNodeToNode(final int start, final int end) {
-        return this.dijkstraNeighbours(start, end);
+        return this.dijkstraNeighbours(start, end, new Scratch(this.n));
     }
 
     // find shortest path from start to end, with the opportunity at
@@ -81,73 +162,107 @@ public class Calculator<T> {
             final int start, final int end,
             final TriFunction<Integer, Integer, Integer, Double> prevCost)
     {
-        final PriorityQueue<QueueEntry> q = new PriorityQueue<>((a, b) -> a.d <= b.d);
-        Node u = this.neighbours[start];
-        QueueEntry qu = new QueueEntry(u, null, 0);
-        final Map<String, Double> visitedFrom = new HashMap<>();
-        q.push(qu);
+        final PathScratch s = this.pathScratch.get();
+        if (0 == ++s.stamp) {
+            Arrays.fill(s.visitedStamp, 0);
+            s.stamp = 1;
+        }
+        final IndexedHeap q = s.q;
+        q.clear();
+        int entries = 0;
+        s.entryNode[0] = start;
+        s.entryPrev[0] = -1;
+        q.push(entries++, 0);
+        int qu = 0;
         while (!q.empty()) {
             qu = q.pop();
-            u = qu.node;
-            if (u.id == end) {
+            final int u = s.entryNode[qu];
+            final double d = q.key(qu);
+            if (u == end) {
                 break;
             }
-            int i = u.neighbours.size();
-            while (0 < i--) {
-                final Neighbour neighbour = u.neighbours.get(i);
-                final Node v = this.neighbours[neighbour.id];
+            final int prev = s.entryPrev[qu];
+            for (int i = this.graph.offsets[u]; i < this.graph.offsets[u + 1]; ++i) {
+                final int v = this.graph.targets[i];
 
                 // don't double back
-                if (null != qu.prev && v.id == qu.prev.node.id) {
+                if (-1 != prev && v == s.entryNode[prev]) {
                     continue;
                 }
 
                 // don't retraverse an edge if it has already been explored
                 // from a lower cost route
-                final String viduid = v.id + "," + u.id;
-                if (visitedFrom.containsKey(viduid) && visitedFrom.get(viduid) <= qu.d) {
+                final int link = s.pair[i];
+                if (s.stamp == s.visitedStamp[link] && s.visitedCost[link] <= d) {
                     continue;
                 }
 
-                final double cc = null != qu.prev ? prevCost.apply(qu.prev.node.id, u.id, v.id) : 0;
-                final double t = qu.d + neighbour.distance + cc;
+                final double cc = -1 != prev ? prevCost.apply(s.entryNode[prev], u, v) : 0;
+                final double t = d + this.graph.weights[i] + cc;
 
                 // store cost of this traversal
-                visitedFrom.put(viduid, t);
-                q.push(new QueueEntry(v, qu, t));
+                s.visitedStamp[link] = s.stamp;
+                s.visitedCost[link] = t;
+                if (entries == s.entryNode.length) {
+                    s.entryNode = Arrays.copyOf(s.entryNode, 2 * entries);
+                    s.entryPrev = Arrays.copyOf(s.entryPrev, 2 * entries);
+                }
+                s.entryNode[entries] = v;
+                s.entryPrev[entries] = qu;
+                q.push(entries++, t);
             }
         }
         final List<Integer> path = new ArrayList<>();
-        while (null != qu.prev) {
-            qu = qu.prev;
-            path.add(qu.node.id);
+        while (-1 != s.entryPrev[qu]) {
+            qu = s.entryPrev[qu];
+            path.add(s.entryNode[qu]);
         }
         return path;
     }
 
-    private double[] dijkstraNeighbours(final int start) {
-        return this.dijkstraNeighbours(start, -1);
+    // with all edges the same length, distances from start are found by breadth first search.  Each distance is accumulated edge by edge
+    // along the path, exactly as Dijkstra would
+    private double[] breadthFirst(final int start, final Scratch s) {
+        final double[] d = new double[this.n];
+        Arrays.fill(d, Double.POSITIVE_INFINITY);
+        final int[] queue = s.queue;
+        int head = 0, tail = 0;
+        d[start] = 0;
+        queue[tail++] = start;
+        while (head < tail) {
+            final int u = queue[head++];
+            final double t = d[u] + this.uniformLength;
+            for (int i = this.graph.offsets[u]; i < this.graph.offsets[u + 1]; ++i) {
+                final int v = this.graph.targets[i];
+                if (Double.POSITIVE_INFINITY == d[v]) {
+                    d[v] = t;
+                    queue[tail++] = v;
+                }
+            }
+        }
+        return d;
     }
 
-
-    private double[] dijkstraNeighbours(final int start, final int dest) {
-        final PriorityQueue<Node> q = new PriorityQueue<>((a, b) -> a.d <= b.d);
-        int i = this.neighbours.length;
-        final double[] d = new double[i];
-        while (0 < i--) {
-            final Node node = this.neighbours[i];
-            node.d = i == start ? 0 : Double.POSITIVE_INFINITY;
-            node.q = q.push(node);
+    private double[] dijkstraNeighbours(final int start, final int dest, final Scratch s) {
+        if (-1 == dest && !Double.isNaN(this.uniformLength)) {
+            return this.breadthFirst(start, s);
         }
+        final double[] d = new double[this.n];
+        Arrays.fill(d, Double.POSITIVE_INFINITY);
+        Arrays.fill(s.prev, -1);
+        final IndexedHeap q = s.q;
+        q.clear();
+        d[start] = 0;
+        q.push(start, 0);
+        int i;
         while (!q.empty()) {
-            final Node u = q.pop();
-            d[u.id] = u.d;
-            if (u.id == dest) {
+            final int u = q.pop();
+            if (u == dest) {
                 final List<Double> path = new ArrayList<>();
-                Node v = u;
-                while (null != v.prev) {
-                    path.add(Double.valueOf(v.prev.id));
-                    v = v.prev;
+                int v = u;
+                while (-1 != s.prev[v]) {
+                    path.add(Double.valueOf(s.prev[v]));
+                    v = s.prev[v];
                 }
                 final double[] result = new double[path.size()];
                 i = 0;
@@ -156,15 +271,17 @@ public class Calculator<T> {
                 }
                 return result;
             }
-            i = u.neighbours.size();
-            while (0 < i--) {
-                final Neighbour neighbour = u.neighbours.get(i);
-                final Node v = this.neighbours[neighbour.id];
-                final double t = u.d + neighbour.distance;
-                if (Double.MAX_VALUE != u.d && v.d > t) {
-                    v.d = t;
-                    v.prev = u;
-                    q.reduceKey(v.q, v, (e, q2) -> {e.q = q2;});
+            for (i = this.graph.offsets[u]; i < this.graph.offsets[u + 1]; ++i) {
+                final int v = this.graph.targets[i];
+                final double t = d[u] + this.graph.weights[i];
+                if (d[v] > t) {
+                    s.prev[v] = u;
+                    if (q.contains(v)) {
+                        q.decreaseKey(v, t);
+                    } else {
+                        q.push(v, t);
+                    }
+                    d[v] = t;
                 }
             }
         }
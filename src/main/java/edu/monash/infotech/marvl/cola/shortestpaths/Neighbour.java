@@ -1,10 +0,0 @@
-package edu.monash.infotech.marvl.cola.shortestpaths;
-
-import lombok.AllArgsConstructor;
-
-@AllArgsConstructor
-public class Neighbour {
-
-    public int    id;
-    public double distance;
-}
@@ -0,0 +1,249 @@
+package edu.monash.infotech.marvl.cola.shortestpaths;
+
+import edu.monash.infotech.marvl.cola.CsrGraph;
+import edu.monash.infotech.marvl.cola.IndexedHeap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Repeated shortest path searches with a cost for each turn, as Calculator.PathFromNodeToNodeWithPrevCost, over a graph that is built
+ * once.  Between searches the graph can be changed in two ways: nodes can be blocked, so that no link of the graph to them is followed,
+ * and extra zero length links can be added.  Both are cleared by reset.  All working state is kept from one search to the next, so a
+ * search allocates nothing but its result once the arrays have grown to fit.  A RouteSearch must only be used by one thread at a time,
+ * but any number of them can share a graph.
+ * <p/>
+ * A search can be given a heuristic, making it an A* search over the same states: each directed link, that is each node and the
+ * neighbour it was reached from, which is all a turn cost depends on.  As long as the heuristic never overestimates the cost still to go,
+ * the path found costs the same as without it, though where there are several cheapest paths it may find another of them.
+ */
+public class RouteSearch {
+
+    /** the cost of turning at v, going from u through v to w */
+    public interface TurnCost {
+
+        double cost(int u, int v, int w);
+    }
+
+    /**
+     * a lower bound on the cost of the rest of the path from v to the end of the search, having come from u, or from the start if u is
+     * -1
+     */
+    public interface Heuristic {
+
+        double estimate(int u, int v);
+    }
+
+    public final CsrGraph graph;
+    /** the cost of the path found by the last search, or infinity if there was none */
+    public double         cost;
+    /** the number of queue entries the last search took to find its path */
+    public int            expanded;
+
+    // a search keeps the cheapest cost of going from each node to each neighbour.  Those costs are indexed by the position in the graph of
+    // the first link from the node to the neighbour, so that parallel links share one, or for a pair joined only by extra links by
+    // graph.targets.length plus the position of the first of them in extra
+    private final int[]  pair;
+    private final long[] blocked;
+    // nodes with extra links, and the extra links as pairs of nodes, with the pair indices of each direction
+    private final long[] hasExtra;
+    private int[]        extra     = new int[0];
+    private int[]        extraPair = new int[0];
+    private int          extraCount;
+
+    // cheapest cost of each pair so far in the current search, valid where visitedStamp is the current stamp
+    private double[]     visitedCost;
+    private int[]        visitedStamp;
+    private int          stamp;
+
+    // queue entries are numbered in the order they are pushed, each recording its node, the entry it was reached from and the cost of the
+    // path so far, which is its key in the queue unless there is a heuristic
+    private final IndexedHeap q;
+    private int[]             entryNode;
+    private int[]             entryPrev;
+    private double[]          entryCost;
+
+    public RouteSearch(final CsrGraph graph) {
+        this.graph = graph;
+        this.pair = new int[graph.targets.length];
+        for (int u = 0; u < graph.n; ++u) {
+            for (int i = graph.offsets[u]; i < graph.offsets[u + 1]; ++i) {
+                int j = graph.offsets[u];
+                while (graph.targets[j] != graph.targets[i]) {
+                    ++j;
+                }
+                this.pair[i] = j;
+            }
+        }
+        final int words = (graph.n + 63) >>> 6;
+        this.blocked = new long[words];
+        this.hasExtra = new long[words];
+        this.visitedCost = new double[graph.targets.length];
+        this.visitedStamp = new int[graph.targets.length];
+        this.q = new IndexedHeap(graph.n);
+        this.entryNode = new int[Math.max(1, graph.n)];
+        this.entryPrev = new int[Math.max(1, graph.n)];
+        this.entryCost = new double[Math.max(1, graph.n)];
+    }
+
+    /** unblock all nodes and remove the extra links */
+    public void reset() {
+        Arrays.fill(this.blocked, 0);
+        Arrays.fill(this.hasExtra, 0);
+        this.extraCount = 0;
+    }
+
+    /** stop searches following links to or from node u */
+    public void block(final int u) {
+        this.blocked[u >>> 6] |= 1L << u;
+    }
+
+    public boolean isBlocked(final int u) {
+        return 0 != (this.blocked[u >>> 6] & 1L << u);
+    }
+
+    /**
+     * add a zero length link between u and v, which must be different nodes.  The link comes after u's and v's links in the graph and
+     * any extra links added before.
+     */
+    public void link(final int u, final int v) {
+        final int k = 2 * this.extraCount;
+        if (k == this.extra.length) {
+            this.extra = Arrays.copyOf(this.extra, Math.max(16, 2 * k));
+            this.extraPair = Arrays.copyOf(this.extraPair, this.extra.length);
+        }
+        this.extra[k] = u;
+        this.extra[k + 1] = v;
+        this.extraPair[k] = this.pairOf(u, v, k);
+        this.extraPair[k + 1] = this.pairOf(v, u, k);
+        ++this.extraCount;
+        this.hasExtra[u >>> 6] |= 1L << u;
+        this.hasExtra[v >>> 6] |= 1L << v;
+        final int pairs = this.graph.targets.length + k + 2;
+        if (pairs > this.visitedCost.length) {
+            this.visitedCost = Arrays.copyOf(this.visitedCost, 2 * pairs);
+            this.visitedStamp = Arrays.copyOf(this.visitedStamp, 2 * pairs);
+        }
+    }
+
+    // pair index of going from u to v over the extra link at position k
+    private int pairOf(final int u, final int v, final int k) {
+        final CsrGraph g = this.graph;
+        for (int i = g.offsets[u]; i < g.offsets[u + 1]; ++i) {
+            if (g.targets[i] == v) {
+                return i;
+            }
+        }
+        for (int j = 0; j < k; j += 2) {
+            if (this.extra[j] == u && this.extra[j + 1] == v) {
+                return this.extraPair[j];
+            }
+            if (this.extra[j + 1] == u && this.extra[j] == v) {
+                return this.extraPair[j + 1];
+            }
+        }
+        return g.targets.length + (this.extra[k] == u ? k : k + 1);
+    }
+
+    /**
+     * find the cheapest path from start to end, where the cost of a path is the lengths of its links plus the cost of each turn along it.
+     * As in PathFromNodeToNodeWithPrevCost, a path never doubles straight back and a directed link is only followed again if it can be
+     * reached more cheaply than before.
+     *
+     * @return the nodes of the path, from the one before end back to start
+     */
+    public List<Integer> path(final int start, final int end, final TurnCost turnCost) {
+        return this.path(start, end, turnCost, null);
+    }
+
+    /**
+     * as path(start, end, turnCost), but searching first where the cost so far plus the heuristic's estimate of the cost to go is least
+     *
+     * @param heuristic must never overestimate, and must be 0 at end.  If null the search is the same as path(start, end, turnCost).
+     */
+    public List<Integer> path(final int start, final int end, final TurnCost turnCost, final Heuristic heuristic) {
+        final CsrGraph g = this.graph;
+        if (0 == ++this.stamp) {
+            Arrays.fill(this.visitedStamp, 0);
+            this.stamp = 1;
+        }
+        this.q.clear();
+        int entries = 0;
+        this.entryNode[0] = start;
+        this.entryPrev[0] = -1;
+        this.entryCost[0] = 0;
+        this.q.push(entries++, null != heuristic ? heuristic.estimate(-1, start) : 0);
+        this.expanded = 0;
+        int qu = 0;
+        while (!this.q.empty()) {
+            qu = this.q.pop();
+            ++this.expanded;
+            final int u = this.entryNode[qu];
+            final double d = this.entryCost[qu];
+            if (u == end) {
+                break;
+            }
+            final int prev = this.entryPrev[qu];
+            final int p = -1 != prev ? this.entryNode[prev] : -1;
+            // a blocked node can still be reached by an extra link, but none of its links in the graph are followed
+            final int first = this.isBlocked(u) ? g.offsets[u + 1] : g.offsets[u];
+            final boolean extraLinks = 0 != (this.hasExtra[u >>> 6] & 1L << u);
+            final int last = g.offsets[u + 1] + (extraLinks ? this.extraCount : 0);
+            for (int i = first; i < last; ++i) {
+                final int v, link;
+                final double length;
+                if (i < g.offsets[u + 1]) {
+                    v = g.targets[i];
+                    if (this.isBlocked(v)) {
+                        continue;
+                    }
+                    link = this.pair[i];
+                    length = g.weights[i];
+                } else {
+                    final int k = 2 * (i - g.offsets[u + 1]);
+                    if (this.extra[k] == u) {
+                        v = this.extra[k + 1];
+                        link = this.extraPair[k];
+                    } else if (this.extra[k + 1] == u) {
+                        v = this.extra[k];
+                        link = this.extraPair[k + 1];
+                    } else {
+                        continue;
+                    }
+                    length = 0;
+                }
+
+                // don't double back
+                if (v == p) {
+                    continue;
+                }
+
+                // don't retraverse a link if it has already been explored from a lower cost route
+                if (this.stamp == this.visitedStamp[link] && this.visitedCost[link] <= d) {
+                    continue;
+                }
+
+                final double t = d + length + (-1 != p ? turnCost.cost(p, u, v) : 0);
+                this.visitedStamp[link] = this.stamp;
+                this.visitedCost[link] = t;
+                if (entries == this.entryNode.length) {
+                    this.entryNode = Arrays.copyOf(this.entryNode, 2 * entries);
+                    this.entryPrev = Arrays.copyOf(this.entryPrev, 2 * entries);
+                    this.entryCost = Arrays.copyOf(this.entryCost, 2 * entries);
+                }
+                this.entryNode[entries] = v;
+                this.entryPrev[entries] = qu;
+                this.entryCost[entries] = t;
+                this.q.push(entries++, null != heuristic ? t + heuristic.estimate(u, v) : t);
+            }
+        }
+        this.cost = end == this.entryNode[qu] ? this.entryCost[qu] : Double.POSITIVE_INFINITY;
+        final List<Integer> path = new ArrayList<>();
+        while (-1 != this.entryPrev[qu]) {
+            qu = this.entryPrev[qu];
+            path.add(this.entryNode[qu]);
+        }
+        return path;
+    }
+}
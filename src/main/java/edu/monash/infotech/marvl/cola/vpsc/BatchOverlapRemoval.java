@@ -0,0 +1,178 @@
+package edu.monash.infotech.marvl.cola.vpsc;
+
+import edu.monash.infotech.marvl.cola.RangeTask;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Overlap removal for large numbers of rectangles packed into a double array, as {x, X, y, Y} for each rectangle in turn.  Rectangles
+ * are swept in order of their left sides to find the clusters connected by overlaps, then VPSC.removeOverlaps is applied to each cluster
+ * on its own, in parallel if a pool is given.  Rectangles that overlap nothing are never touched, so the work is in proportion to the
+ * overlapping rectangles rather than to all of them.
+ * <p/>
+ * Moving the rectangles of one cluster can make them overlap another, so the sweep is repeated on the result, up to MAX_ROUNDS times
+ * (or a given number of rounds) or until there are no overlaps left.  The last round solves all the clusters still left together, so
+ * that clusters that keep pushing into each other are settled in one solve.  Since VPSC.removeOverlaps does not promise to remove every
+ * overlap, the number of rectangles that still overlap another is returned.
+ */
+public class BatchOverlapRemoval {
+
+    public static final int MAX_ROUNDS = 4;
+
+    /**
+     * remove overlaps, moving the rectangles in place
+     *
+     * @param bounds {x, X, y, Y} of each rectangle
+     * @param pool   if not null, clusters are solved in parallel using this pool
+     * @return the number of rectangles left overlapping another
+     */
+    public static int removeOverlaps(final double[] bounds, final ForkJoinPool pool) {
+        return BatchOverlapRemoval.removeOverlaps(bounds, pool, MAX_ROUNDS);
+    }
+
+    /**
+     * remove overlaps, moving the rectangles in place
+     *
+     * @param bounds    {x, X, y, Y} of each rectangle
+     * @param pool      if not null, clusters are solved in parallel using this pool
+     * @param maxRounds the most times the sweep is repeated
+     * @return the number of rectangles left overlapping another
+     */
+    public static int removeOverlaps(final double[] bounds, final ForkJoinPool pool, final int maxRounds) {
+        int[][] clusters = BatchOverlapRemoval.clusters(bounds);
+        for (int round = 0; round < maxRounds && 0 < clusters.length; ++round) {
+            final int[][] solve = round == maxRounds - 1 ? new int[][] {BatchOverlapRemoval.merge(clusters)} : clusters;
+            if (null == pool || 1 == solve.length) {
+                for (final int[] cluster : solve) {
+                    BatchOverlapRemoval.removeOverlaps(bounds, cluster);
+                }
+            } else {
+                RangeTask.forEach(pool, solve.length, (from, to) -> {
+                    for (int c = from; c < to; ++c) {
+                        BatchOverlapRemoval.removeOverlaps(bounds, solve[c]);
+                    }
+                });
+            }
+            clusters = BatchOverlapRemoval.clusters(bounds);
+        }
+        int overlapping = 0;
+        for (final int[] cluster : clusters) {
+            overlapping += cluster.length;
+        }
+        return overlapping;
+    }
+
+    // the rectangles of all the clusters, in increasing order
+    private static int[] merge(final int[][] clusters) {
+        int count = 0;
+        for (final int[] cluster : clusters) {
+            count += cluster.length;
+        }
+        final int[] merged = new int[count];
+        count = 0;
+        for (final int[] cluster : clusters) {
+            System.arraycopy(cluster, 0, merged, count, cluster.length);
+            count += cluster.length;
+        }
+        Arrays.sort(merged);
+        return merged;
+    }
+
+    /**
+     * @param bounds {x, X, y, Y} of each rectangle
+     * @return the indices of the rectangles in each set of two or more connected by overlaps, in increasing order
+     */
+    public static int[][] clusters(final double[] bounds) {
+        final int n = bounds.length / 4;
+        final int[] order = new int[n], tmp = new int[n];
+        final double[] left = new double[n];
+        for (int i = 0; i < n; ++i) {
+            order[i] = i;
+            left[i] = bounds[4 * i];
+        }
+        final int[] sorted = OverlapConstraintGenerator.sort(order, tmp, left, n);
+
+        final int[] parent = new int[n];
+        for (int i = 0; i < n; ++i) {
+            parent[i] = i;
+        }
+        final boolean[] overlapping = new boolean[n];
+        // rectangles whose right side is beyond the left side of the one being swept
+        final int[] active = new int[n];
+        int activeCount = 0;
+        for (int k = 0; k < n; ++k) {
+            final int i = sorted[k];
+            final double x = bounds[4 * i], X = bounds[4 * i + 1], y = bounds[4 * i + 2], Y = bounds[4 * i + 3];
+            int kept = 0;
+            for (int a = 0; a < activeCount; ++a) {
+                final int j = active[a];
+                if (bounds[4 * j + 1] <= x) {
+                    continue;
+                }
+                active[kept++] = j;
+                if (bounds[4 * j] < X && bounds[4 * j + 2] < Y && y < bounds[4 * j + 3]) {
+                    overlapping[i] = overlapping[j] = true;
+                    final int ri = BatchOverlapRemoval.find(parent, i), rj = BatchOverlapRemoval.find(parent, j);
+                    if (ri != rj) {
+                        parent[Math.max(ri, rj)] = Math.min(ri, rj);
+                    }
+                }
+            }
+            activeCount = kept;
+            active[activeCount++] = i;
+        }
+
+        // number the clusters in order of their lowest rectangle
+        final int[] cluster = new int[n], sizes = new int[n];
+        int count = 0;
+        for (int i = 0; i < n; ++i) {
+            if (overlapping[i]) {
+                final int r = BatchOverlapRemoval.find(parent, i);
+                if (r == i) {
+                    cluster[i] = count++;
+                } else {
+                    cluster[i] = cluster[r];
+                }
+                ++sizes[cluster[i]];
+            }
+        }
+        final int[][] result = new int[count][];
+        for (int c = 0; c < count; ++c) {
+            result[c] = new int[sizes[c]];
+            sizes[c] = 0;
+        }
+        for (int i = 0; i < n; ++i) {
+            if (overlapping[i]) {
+                final int c = cluster[i];
+                result[c][sizes[c]++] = i;
+            }
+        }
+        return result;
+    }
+
+    private static int find(final int[] parent, int i) {
+        while (parent[i] != i) {
+            i = parent[i] = parent[parent[i]];
+        }
+        return i;
+    }
+
+    private static void removeOverlaps(final double[] bounds, final int[] cluster) {
+        final List<Rectangle> rs = new ArrayList<>(cluster.length);
+        for (final int i : cluster) {
+            rs.add(new Rectangle(bounds[4 * i], bounds[4 * i + 1], bounds[4 * i + 2], bounds[4 * i + 3]));
+        }
+        VPSC.removeOverlaps(rs);
+        for (int k = 0; k < cluster.length; ++k) {
+            final Rectangle r = rs.get(k);
+            final int i = cluster[k];
+            bounds[4 * i] = r.x;
+            bounds[4 * i + 1] = r.X;
+            bounds[4 * i + 2] = r.y;
+            bounds[4 * i + 3] = r.Y;
+        }
+    }
+}
@@ -1,10 +1,8 @@
 package edu.monash.infotech.marvl.cola.vpsc;
 
-import edu.monash.infotech.marvl.cola.TriConsumer;
-
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.function.BiConsumer;
 
 public class Block {
 
@@ -12,18 +10,61 @@ public class Block {
     public double        posn;
     public PositionStats ps;
     public int           blockInd;
+    // a fixed variable in the block, which pins the block to the position that puts it at its desired position
+    public Variable      pinned;
+    // the constraints of the solver the block belongs to, variables and constraints are referred to by their indices in it
+    public final ConstraintStore cs;
+    // the constraints between this block and others, so that the solver can find those whose slack changes when the block moves without
+    // looking at every constraint of its variables.  Constraints that have come inside the block since are left in until the solver
+    // next looks through the list.
+    int[] boundary;
+    int   boundaryCount;
 
-    public Block(final Variable v) {
+    public Block(final Variable v, final ConstraintStore cs) {
+        this.cs = cs;
         v.offset = 0;
         this.ps = new PositionStats(v.scale);
         this.addVariable(v);
     }
 
+    // set the boundary from the constraints of the block's variables, once they have all been added
+    void collectBoundary() {
+        final ConstraintStore cs = this.cs;
+        this.boundaryCount = 0;
+        for (final Variable v : this.vars) {
+            for (int i = cs.outOffsets[v.id], end = cs.outOffsets[v.id + 1]; i < end; ++i) {
+                this.addBoundary(cs.outConstraints[i], cs.right);
+            }
+            for (int i = cs.inOffsets[v.id], end = cs.inOffsets[v.id + 1]; i < end; ++i) {
+                this.addBoundary(cs.inConstraints[i], cs.left);
+            }
+        }
+    }
+
+    private void addBoundary(final int c, final int[] otherEnd) {
+        if (this != this.cs.vars[otherEnd[c]].block) {
+            if (null == this.boundary) {
+                this.boundary = new int[4];
+            } else if (this.boundaryCount == this.boundary.length) {
+                this.boundary = Arrays.copyOf(this.boundary, 2 * this.boundaryCount);
+            }
+            this.boundary[this.boundaryCount++] = c;
+        }
+    }
+
     private void addVariable(final Variable v) {
         v.block = this;
         this.vars.add(v);
         this.ps.addVariable(v);
-        this.posn = this.ps.getPosn();
+        if (v.fixed) {
+            this.pinned = v;
+        }
+        this.updatePosn();
+    }
+
+    private void updatePosn() {
+        final Variable p = this.pinned;
+        this.posn = null == p ? this.ps.getPosn() : (p.desiredPosition * p.scale - p.offset) / this.ps.scale;
     }
 
     // move the block where it needs to be to minimize cost
@@ -34,121 +75,236 @@ public class Block {
         for (final Variable var : this.vars) {
             this.ps.addVariable(var);
         }
-        this.posn = this.ps.getPosn();
+        this.updatePosn();
+    }
+
+    // the active constraint trees of blocks are traversed depth first with an explicit stack rather than by recursion, so that large
+    // blocks cannot overflow the call stack.  Frame i of the stack holds the variable visited, the constraint it was reached by, the
+    // position of the next of its constraints to look at (its out constraints then its in constraints) and, for compute_lm, its
+    // accumulated derivative.  The work arrays are kept with the block and grown as needed.
+    private int[]    stackVar;
+    private int[]    stackEdge;
+    private int[]    stackNext;
+    private double[] stackValue;
+
+    private void push(final int top, final int v, final int c) {
+        if (null == this.stackVar) {
+            this.stackVar = new int[4];
+            this.stackEdge = new int[4];
+            this.stackNext = new int[4];
+            this.stackValue = new double[4];
+        } else if (top == this.stackVar.length) {
+            final int size = 2 * top;
+            this.stackVar = Arrays.copyOf(this.stackVar, size);
+            this.stackEdge = Arrays.copyOf(this.stackEdge, size);
+            this.stackNext = Arrays.copyOf(this.stackNext, size);
+            this.stackValue = Arrays.copyOf(this.stackValue, size);
+        }
+        this.stackVar[top] = v;
+        this.stackEdge[top] = c;
+        this.stackNext[top] = 0;
+    }
+
+    // the next active constraint of the variable in frame top that does not lead back to the previous frame's variable, out
+    // constraints first, or -1 once they have all been visited
+    private int nextNeighbour(final int top) {
+        final ConstraintStore cs = this.cs;
+        final int v = this.stackVar[top], prev = 0 < top ? this.stackVar[top - 1] : -1;
+        final int out = cs.outOffsets[v], outs = cs.outOffsets[v + 1] - out, in = cs.inOffsets[v];
+        final int n = outs + cs.inOffsets[v + 1] - in;
+        while (this.stackNext[top] < n) {
+            final int i = this.stackNext[top]++;
+            if (i < outs) {
+                final int c = cs.outConstraints[out + i];
+                if (cs.isActive(c) && prev != cs.right[c]) {
+                    return c;
+                }
+            } else {
+                final int c = cs.inConstraints[in + i - outs];
+                if (cs.isActive(c) && prev != cs.left[c]) {
+                    return c;
+                }
+            }
+        }
+        return -1;
     }
 
-    private double compute_lm(final Variable v, final Variable u, final BiConsumer<Constraint, ValueHolder> postAction,
-                              final ValueHolder postValue)
-    {
-        final ValueHolder<Double> valueHolder = new ValueHolder<>(v.dfdv());
-        v.visitNeighbours(u, (c, next, value) -> {
-            double _dfdv = this.compute_lm(next, v, postAction, postValue);
-            final ValueHolder<Double> dfdv = value;
-            if (next.equals(c.right)) {
-                dfdv.set(dfdv.get() + _dfdv * c.left.scale);
-                c.lm = _dfdv;
+    // the variable at the other end of a constraint returned by nextNeighbour for frame top
+    private int otherEnd(final int top, final int c) {
+        final int v = this.stackVar[top];
+        return this.stackNext[top] <= this.cs.outOffsets[v + 1] - this.cs.outOffsets[v] ? this.cs.right[c] : this.cs.left[c];
+    }
+
+    // the multipliers of a pinned block are computed from its fixed variable, which takes up whatever force is left over
+    private int lmRoot(final int v) {
+        return null == this.pinned ? v : this.pinned.id;
+    }
+
+    // compute the lagrangian multipliers of the active constraints of the tree rooted at v, returning the constraint with the least
+    // multiplier (skipping equalities) if findMin is set, or -1
+    private int compute_lm(final int v, final boolean findMin) {
+        final ConstraintStore cs = this.cs;
+        int min = -1;
+        int top = 0;
+        this.push(0, v, -1);
+        this.stackValue[0] = cs.vars[v].dfdv();
+        while (true) {
+            final int c = this.nextNeighbour(top);
+            if (0 <= c) {
+                final int next = this.otherEnd(top, c);
+                this.push(++top, next, c);
+                this.stackValue[top] = cs.vars[next].dfdv();
+                continue;
+            }
+            // all the neighbours of the variable in frame top are done
+            final double _dfdv = this.stackValue[top] / cs.vars[this.stackVar[top]].scale;
+            if (0 == top) {
+                break;
+            }
+            final int e = this.stackEdge[top];
+            final int next = this.stackVar[top];
+            --top;
+            if (next == cs.right[e]) {
+                this.stackValue[top] += _dfdv * cs.vars[cs.left[e]].scale;
+                cs.lm[e] = _dfdv;
             } else {
-                dfdv.set(dfdv.get() + _dfdv * c.right.scale);
-                c.lm = -_dfdv;
+                this.stackValue[top] += _dfdv * cs.vars[cs.right[e]].scale;
+                cs.lm[e] = -_dfdv;
+            }
+            if (findMin && !cs.isEquality(e) && (-1 == min || cs.lm[e] < cs.lm[min])) {
+                min = e;
+            }
+        }
+        return min;
+    }
+
+    // add the variables of the active constraint tree from v, setting their offsets from the gaps, or just set the offsets if add is false
+    private void populate(final int v, final boolean add) {
+        final ConstraintStore cs = this.cs;
+        int top = 0;
+        this.push(0, v, -1);
+        while (0 <= top) {
+            final int c = this.nextNeighbour(top);
+            if (-1 == c) {
+                --top;
+                continue;
             }
-            postAction.accept(c, postValue);
-        }, valueHolder);
-        return valueHolder.get() / v.scale;
+            final int from = this.stackVar[top], next = this.otherEnd(top, c);
+            final Variable nv = cs.vars[next];
+            nv.offset = cs.vars[from].offset + (next == cs.right[c] ? cs.gap[c] : -cs.gap[c]);
+            if (add) {
+                this.addVariable(nv);
+            }
+            this.push(++top, next, c);
+        }
     }
 
-    private void populateSplitBlock(final Variable v, final Variable prev) {
-        v.visitNeighbours(prev, (c, next, value) -> {
-            next.offset = v.offset + (next.equals(c.right) ? c.gap : -c.gap);
-            this.addVariable(next);
-            this.populateSplitBlock(next, v);
-        }, null);
+    // recompute the offsets of the variables from the gaps of the active constraints, after the gaps have changed
+    public void updateOffsets() {
+        this.populate(this.vars.get(0).id, false);
     }
 
     // calculate lagrangian multipliers on constraints and
     // find the active constraint in this block with the smallest lagrangian.
     // if the lagrangian is negative, then the constraint is a split candidate.
-    public Constraint findMinLM() {
-        final ValueHolder<Constraint> valueHolder = new ValueHolder<>(null);
-        this.compute_lm(this.vars.get(0), null, (c, value) -> {
-            final ValueHolder<Constraint> m = value;
-            if (!c.equality && (null == m.get() || c.lm < m.get().lm)) {
-                m.set(c);
-            }
-        }, valueHolder);
-        return valueHolder.get();
+    public int findMinLM() {
+        return this.compute_lm(this.lmRoot(this.vars.get(0).id), true);
     }
 
-    private Constraint findMinLMBetween(final Variable lv, final Variable rv) {
-        this.compute_lm(lv, null, (c, v) -> {}, null);
-        final ValueHolder<Constraint> valueHolder = new ValueHolder<>(null);
-        this.findPath(lv, null, rv, (c, next, value) -> {
-            final ValueHolder<Constraint> m = value;
-            if (!c.equality && next.equals(c.right) && (null == m.get() || c.lm < m.get().lm)) {
-                m.set(c);
+    // the non-equality constraint with the least lagrangian on the path from lv to rv that points towards rv
+    private int findMinLMBetween(final int lv, final int rv) {
+        final ConstraintStore cs = this.cs;
+        this.compute_lm(this.lmRoot(lv), false);
+        // depth first search for rv, after which the stack holds the path to it
+        int top = 0;
+        this.push(0, lv, -1);
+        boolean found = false;
+        while (0 <= top && !found) {
+            final int c = this.nextNeighbour(top);
+            if (-1 == c) {
+                --top;
+                continue;
             }
-        }, valueHolder);
-        return valueHolder.get();
-    }
-
-    private Boolean findPath(final Variable v, final Variable prev, final Variable to,
-                             final TriConsumer<Constraint, Variable, ValueHolder> visit, final ValueHolder visitValue)
-    {
-        final ValueHolder<Boolean> valueHolder = new ValueHolder<>(false);
-        v.visitNeighbours(prev, (c, next, value) -> {
-            final ValueHolder<Boolean> endFound = value;
-            if (!endFound.get() && (next.equals(to) || this.findPath(next, v, to, visit, visitValue))) {
-                endFound.set(true);
-                visit.accept(c, next, visitValue);
+            final int next = this.otherEnd(top, c);
+            this.push(++top, next, c);
+            found = next == rv;
+        }
+        // visit the path from rv back to lv
+        int min = -1;
+        for (; 0 < top; --top) {
+            final int c = this.stackEdge[top];
+            if (!cs.isEquality(c) && this.stackVar[top] == cs.right[c] && (-1 == min || cs.lm[c] < cs.lm[min])) {
+                min = c;
             }
-        }, valueHolder);
-        return valueHolder.get();
+        }
+        return min;
     }
 
     // Search active constraint tree from u to see if there is a directed path to v.
     // Returns true if path is found.
-    public boolean isActiveDirectedPathBetween(final Variable u, final Variable v) {
-        if (u.equals(v)) {
-            return true;
-        }
-        int i = u.cOut.size();
-        while (0 < i--) {
-            Constraint c = u.cOut.get(i);
-            if (c.active && this.isActiveDirectedPathBetween(c.right, v)) { return true; }
+    public boolean isActiveDirectedPathBetween(final int u, final int v) {
+        final ConstraintStore cs = this.cs;
+        int top = 0;
+        this.push(0, u, -1);
+        while (0 <= top) {
+            final int w = this.stackVar[top--];
+            if (w == v) {
+                return true;
+            }
+            int i = cs.outOffsets[w + 1];
+            while (cs.outOffsets[w] < i--) {
+                final int c = cs.outConstraints[i];
+                if (cs.isActive(c)) {
+                    this.push(++top, cs.right[c], c);
+                }
+            }
         }
         return false;
     }
 
     // split the block into two by deactivating the specified constraint
-    public static Block[] split(final Constraint c) {
-        c.active = false;
-        return new Block[] {Block.createSplitBlock(c.left), Block.createSplitBlock(c.right)};
+    public static Block[] split(final ConstraintStore cs, final int c) {
+        cs.setActive(c, false);
+        return new Block[] {Block.createSplitBlock(cs, cs.left[c]), Block.createSplitBlock(cs, cs.right[c])};
     }
 
-    private static Block createSplitBlock(final Variable startVar) {
-        final Block b = new Block(startVar);
-        b.populateSplitBlock(startVar, null);
+    private static Block createSplitBlock(final ConstraintStore cs, final int startVar) {
+        final Block b = new Block(cs.vars[startVar], cs);
+        b.populate(startVar, true);
+        b.collectBoundary();
         return b;
     }
 
     // find a split point somewhere between the specified variables
-    public BlockSplit splitBetween(final Variable vl, final Variable vr) {
-        final Constraint c = this.findMinLMBetween(vl, vr);
-        if (null != c) {
-            final Block[] bs = Block.split(c);
+    public BlockSplit splitBetween(final int vl, final int vr) {
+        final int c = this.findMinLMBetween(vl, vr);
+        if (-1 != c) {
+            final Block[] bs = Block.split(this.cs, c);
             return new BlockSplit(c, bs[0], bs[1]);
         }
         // couldn't find a split point - for example the active path is all equality constraints
         return null;
     }
 
-    public void mergeAcross(final Block b, final Constraint c, final double dist) {
-        c.active = true;
+    public void mergeAcross(final Block b, final int c, final double dist) {
+        this.cs.setActive(c, true);
         for (int i = 0, n = b.vars.size(); i < n; ++i) {
             final Variable v = b.vars.get(i);
             v.offset += dist;
             this.addVariable(v);
         }
-        this.posn = this.ps.getPosn();
+        // the boundary of the merged block is within those of the two
+        final int count = this.boundaryCount + b.boundaryCount;
+        if (null == this.boundary) {
+            this.boundary = new int[Math.max(4, count)];
+        } else if (this.boundary.length < count) {
+            this.boundary = Arrays.copyOf(this.boundary, Math.max(count, 2 * this.boundary.length));
+        }
+        if (0 < b.boundaryCount) {
+            System.arraycopy(b.boundary, 0, this.boundary, this.boundaryCount, b.boundaryCount);
+        }
+        this.boundaryCount = count;
+        this.updatePosn();
     }
 
     public double cost() {
@@ -5,7 +5,7 @@ import lombok.AllArgsConstructor;
 @AllArgsConstructor
 public class BlockSplit {
 
-    public Constraint constraint;
+    public int        constraint;
     public Block      lb;
     public Block      rb;
 }
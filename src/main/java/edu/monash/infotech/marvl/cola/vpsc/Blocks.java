@@ -3,23 +3,29 @@ package edu.monash.infotech.marvl.cola.vpsc;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.IntConsumer;
 
 public class Blocks {
 
     public final List<Block>    list;
     public final List<Variable> vs;
+    public final ConstraintStore cs;
+    /** if set, merges and splits are counted here */
+    public SolverStats stats;
 
-    public Blocks(final List<Variable> vs) {
+    public Blocks(final List<Variable> vs, final ConstraintStore cs) {
         //noinspection AssignmentToCollectionOrArrayFieldFromParameter
         this.vs = vs;
+        this.cs = cs;
         int i = 0;
         this.list = new ArrayList<>(vs.size());
         for (final Variable v : vs) {
-            final Block b = new Block(v);
+            final Block b = new Block(v, cs);
             this.list.add(b);
             b.blockInd = i;
             i++;
         }
+        this.list.forEach(b -> b.collectBoundary());
     }
 
     public double cost() {
@@ -48,9 +54,13 @@ public class Blocks {
 
     // merge the blocks on either side of the specified constraint, by copying the smaller block into the larger
     // and deleting the smaller.
-    public void merge(final Constraint c) {
-        final Block l = c.left.block, r = c.right.block;
-        final double dist = c.right.offset - c.left.offset - c.gap;
+    public void merge(final int c) {
+        final Variable left = this.cs.vars[this.cs.left[c]], right = this.cs.vars[this.cs.right[c]];
+        final Block l = left.block, r = right.block;
+        final double dist = right.offset - left.offset - this.cs.gap[c];
+        if (null != this.stats) {
+            ++this.stats.merges;
+        }
         if (l.vars.size() < r.vars.size()) {
             r.mergeAcross(l, c, dist);
             this.remove(l);
@@ -66,7 +76,7 @@ public class Blocks {
     }
 
     // split each block across its constraint with the minimum lagrangian
-    public void split(final List<Constraint> inactive) {
+    public void split(final IntConsumer inactive) {
         this.updateBlockPositions();
         // Make a copy of the list to avoid ConcurrentModificationException.
         // The code below will modify this.list throughout the iteration.
@@ -75,13 +85,16 @@ public class Blocks {
         final List<Block> listCopy = new ArrayList<>(this.list);
         listCopy.forEach(b -> {
             // also need to check that b has not been removed from this.list
-            if (0 <= this.list.indexOf(b)) {
-                final Constraint v = b.findMinLM();
-                if (null != v && Solver.LAGRANGIAN_TOLERANCE > v.lm) {
-                    b = v.left.block;
-                    Arrays.stream(Block.split(v)).forEach(nb -> this.insert(nb));
+            if (b.blockInd < this.list.size() && b == this.list.get(b.blockInd)) {
+                final int v = b.findMinLM();
+                if (-1 != v && Solver.LAGRANGIAN_TOLERANCE > this.cs.lm[v]) {
+                    b = this.cs.vars[this.cs.left[v]].block;
+                    Arrays.stream(Block.split(this.cs, v)).forEach(nb -> this.insert(nb));
                     this.remove(b);
-                    inactive.add(v);
+                    inactive.accept(v);
+                    if (null != this.stats) {
+                        ++this.stats.splits;
+                    }
                 }
             }
         });
@@ -0,0 +1,215 @@
+package edu.monash.infotech.marvl.cola.vpsc;
+
+import edu.monash.infotech.marvl.cola.RangeTask;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Front-end to Solver for problems that fall into independent parts.  The variables are split into the connected components of the
+ * graph whose edges are the constraints, found with union-find, and each component gets its own Solver.  Variables without constraints
+ * all go in one component.  Components are solved concurrently in pool if one is set.
+ * <p/>
+ * Each component is satisfied until its own cost stops changing, as Solver.solve would do for it alone, so components that converge
+ * early are not satisfied again while others are still moving.  The result is the same as solving each component with its own Solver.
+ * A problem that is all one component gets a Solver over the variable and constraint lists themselves, and callers can use that
+ * directly, as there is nothing to solve in parallel.
+ */
+public class ComponentSolver {
+
+    public List<Variable>   vs;
+    public List<Constraint> cs;
+    /** solver of each component */
+    public Solver[]         solvers;
+    /** if set, components are solved in parallel using this pool */
+    public ForkJoinPool     pool;
+    /** if set, the work done by each solve is added to these counters */
+    public SolverStats      stats;
+
+    // for each variable, its component and its index within that component's variables
+    private final int[] component;
+    private final int[] indexInComponent;
+    private final double[] costs;
+
+    public ComponentSolver(final List<Variable> vs, final List<Constraint> cs) {
+        this(vs, cs, null);
+    }
+
+    public ComponentSolver(final List<Variable> vs, final List<Constraint> cs, final ForkJoinPool pool) {
+        //noinspection AssignmentToCollectionOrArrayFieldFromParameter
+        this.vs = vs;
+        //noinspection AssignmentToCollectionOrArrayFieldFromParameter
+        this.cs = cs;
+        this.pool = pool;
+        final int n = vs.size();
+        final Map<Variable, Integer> index = new IdentityHashMap<>(2 * n);
+        for (int i = 0; i < n; ++i) {
+            index.put(vs.get(i), i);
+        }
+
+        final int[] parent = new int[n], size = new int[n];
+        for (int i = 0; i < n; ++i) {
+            parent[i] = i;
+            size[i] = 1;
+        }
+        final boolean[] constrained = new boolean[n];
+        final int[] left = new int[cs.size()];
+        for (int k = 0; k < cs.size(); ++k) {
+            final Constraint c = cs.get(k);
+            final int l = index.get(c.left), r = index.get(c.right);
+            constrained[l] = constrained[r] = true;
+            left[k] = l;
+            int a = ComponentSolver.find(parent, l), b = ComponentSolver.find(parent, r);
+            if (a != b) {
+                if (size[a] < size[b]) {
+                    final int t = a;
+                    a = b;
+                    b = t;
+                }
+                parent[b] = a;
+                size[a] += size[b];
+            }
+        }
+
+        // number the components in order of their first variable, with all the unconstrained variables together
+        this.component = new int[n];
+        this.indexInComponent = new int[n];
+        final int[] rootComponent = new int[n];
+        Arrays.fill(rootComponent, -1);
+        final List<List<Variable>> componentVars = new ArrayList<>();
+        int free = -1;
+        for (int i = 0; i < n; ++i) {
+            int c;
+            if (!constrained[i]) {
+                if (-1 == free) {
+                    free = componentVars.size();
+                    componentVars.add(new ArrayList<>());
+                }
+                c = free;
+            } else {
+                final int root = ComponentSolver.find(parent, i);
+                if (-1 == rootComponent[root]) {
+                    rootComponent[root] = componentVars.size();
+                    componentVars.add(new ArrayList<>());
+                }
+                c = rootComponent[root];
+            }
+            this.component[i] = c;
+            this.indexInComponent[i] = componentVars.get(c).size();
+            componentVars.get(c).add(vs.get(i));
+        }
+        final int m = componentVars.size();
+        final List<List<Constraint>> componentConstraints = new ArrayList<>(m);
+        for (int c = 0; c < m; ++c) {
+            componentConstraints.add(new ArrayList<>());
+        }
+        for (int k = 0; k < cs.size(); ++k) {
+            componentConstraints.get(this.component[left[k]]).add(cs.get(k));
+        }
+        this.solvers = new Solver[m];
+        if (1 == m) {
+            this.solvers[0] = new Solver(vs, cs);
+        } else {
+            for (int c = 0; c < m; ++c) {
+                this.solvers[c] = new Solver(componentVars.get(c), componentConstraints.get(c));
+            }
+        }
+        this.costs = new double[m];
+    }
+
+    private static int find(final int[] parent, int i) {
+        while (parent[i] != i) {
+            i = parent[i] = parent[parent[i]];
+        }
+        return i;
+    }
+
+    public void setStartingPositions(final double[] ps) {
+        final double[][] split = this.split(ps);
+        for (int c = 0; c < this.solvers.length; ++c) {
+            this.solvers[c].setStartingPositions(split[c]);
+        }
+    }
+
+    public void setDesiredPositions(final double[] ps) {
+        for (int i = 0; i < this.vs.size(); ++i) {
+            this.vs.get(i).desiredPosition = ps[i];
+        }
+    }
+
+    // values for all the variables split into arrays for the variables of each component
+    private double[][] split(final double[] ps) {
+        final double[][] result = new double[this.solvers.length][];
+        for (int c = 0; c < this.solvers.length; ++c) {
+            result[c] = new double[this.solvers[c].vs.size()];
+        }
+        for (int i = 0; i < this.vs.size(); ++i) {
+            result[this.component[i]][this.indexInComponent[i]] = ps[i];
+        }
+        return result;
+    }
+
+    public double cost() {
+        double cost = 0;
+        for (final Solver s : this.solvers) {
+            cost += s.cost();
+        }
+        return cost;
+    }
+
+    // bring every component to convergence, returning the total cost
+    private double converge() {
+        if (null == this.pool || 2 > this.solvers.length) {
+            for (int c = 0; c < this.solvers.length; ++c) {
+                this.costs[c] = this.solvers[c].converge();
+            }
+        } else {
+            RangeTask.forEach(this.pool, this.solvers.length, (from, to) -> {
+                for (int c = from; c < to; ++c) {
+                    this.costs[c] = this.solvers[c].converge();
+                }
+            });
+        }
+        double cost = 0;
+        for (final double c : this.costs) {
+            cost += c;
+        }
+        return cost;
+    }
+
+    public double solve() {
+        final long start = null != this.stats ? System.nanoTime() : 0;
+        // components are counted separately, as they may be solved on different threads
+        for (final Solver s : this.solvers) {
+            s.stats = null != this.stats ? new SolverStats() : null;
+            s.updateBounds();
+        }
+        final double cost = this.converge();
+        for (final Solver s : this.solvers) {
+            s.saveState();
+        }
+        if (null != this.stats) {
+            for (final Solver s : this.solvers) {
+                this.stats.add(s.stats);
+            }
+            ++this.stats.solves;
+            this.stats.nanos += System.nanoTime() - start;
+        }
+        return cost;
+    }
+
+    /** as Solver.resume, for every component */
+    public double resume() {
+        for (final Solver s : this.solvers) {
+            s.updateBounds();
+            if (s.canResume()) {
+                s.restoreState();
+            }
+        }
+        return this.solve();
+    }
+}
@@ -11,14 +11,14 @@ public class Constraint {
     public int          rightIndex;
     public double       gap;
     public boolean      equality;
-    public String       type;
-    public String       axis;
+    public ConstraintType type;
+    public ConstraintAxis axis;
 
     public Constraint(final Variable left, final Variable right, final double gap) {
         this(left, right, gap, false);
     }
 
-    public Constraint(final String axis, final int leftIndex, final int rightIndex, final double gap) {
+    public Constraint(final ConstraintAxis axis, final int leftIndex, final int rightIndex, final double gap) {
         this.axis = axis;
         this.leftIndex = leftIndex;
         this.rightIndex = rightIndex;
@@ -32,7 +32,9 @@ public class Constraint {
         this.equality = equality;
     }
 
-    public Constraint(final String type, final String axis, final int leftIndex, final int rightIndex, final double gap, final boolean equality) {
+    public Constraint(final ConstraintType type, final ConstraintAxis axis, final int leftIndex, final int rightIndex, final double gap,
+                      final boolean equality)
+    {
         this.type = type;
         this.axis = axis;
         this.leftIndex = leftIndex;
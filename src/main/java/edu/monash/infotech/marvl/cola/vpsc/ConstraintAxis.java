@@ -0,0 +1,12 @@
+package edu.monash.infotech.marvl.cola.vpsc;
+
+/**
+ * The axis a user constraint applies to:
+ *  - x: horizontal positions
+ *  - y: vertical positions
+ */
+public enum ConstraintAxis {
+    x,
+    y;
+
+}
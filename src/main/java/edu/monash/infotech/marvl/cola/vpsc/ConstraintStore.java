@@ -0,0 +1,147 @@
+package edu.monash.infotech.marvl.cola.vpsc;
+
+import java.util.List;
+
+/**
+ * The constraints of a Solver as parallel arrays, which is what the solver works on.  Constraint i joins variables left[i] and right[i]
+ * (indices into vars) with gap[i]; its Lagrange multiplier is lm[i] and its active, equality and unsatisfiable flags are bits i of three
+ * bitsets.  The constraints into and out of variable v are, in the order of the constraint list, inConstraints[inOffsets[v] ..
+ * inOffsets[v + 1] - 1] and outConstraints[outOffsets[v] .. outOffsets[v + 1] - 1].
+ * <p/>
+ * The solver works on these arrays rather than on the Constraint objects the store is made from, which stay the interface to it: gaps
+ * and flags are read from them by load and the solution is written back to them by store.  The Constraint objects are kept alongside, so
+ * the store adds to their memory rather than replacing it; what it saves is the pointer chasing in the solver's inner loops.  Each
+ * variable's id is set to its index in vars, so a variable can only belong to one store in use at a time.
+ */
+public class ConstraintStore {
+
+    public final int        n;
+    public final int        m;
+    public final Variable[] vars;
+    public final int[]      left;
+    public final int[]      right;
+    public final double[]   gap;
+    public final double[]   lm;
+    public final int[]      outOffsets;
+    public final int[]      outConstraints;
+    public final int[]      inOffsets;
+    public final int[]      inConstraints;
+
+    private final long[] active;
+    private final long[] equality;
+    private final long[] unsatisfiable;
+
+    private final Constraint[] constraints;
+
+    public ConstraintStore(final List<Variable> vs, final List<Constraint> cs) {
+        this.n = vs.size();
+        this.m = cs.size();
+        this.vars = vs.toArray(new Variable[this.n]);
+        this.identify();
+        this.constraints = cs.toArray(new Constraint[this.m]);
+        this.left = new int[this.m];
+        this.right = new int[this.m];
+        this.gap = new double[this.m];
+        this.lm = new double[this.m];
+        final int words = (this.m + 63) >>> 6;
+        this.active = new long[words];
+        this.equality = new long[words];
+        this.unsatisfiable = new long[words];
+
+        this.outOffsets = new int[this.n + 1];
+        this.inOffsets = new int[this.n + 1];
+        for (int i = 0; i < this.m; ++i) {
+            final Constraint c = this.constraints[i];
+            ++this.outOffsets[(this.left[i] = c.left.id) + 1];
+            ++this.inOffsets[(this.right[i] = c.right.id) + 1];
+            if (c.equality) {
+                ConstraintStore.set(this.equality, i, true);
+            }
+        }
+        for (int v = 0; v < this.n; ++v) {
+            this.outOffsets[v + 1] += this.outOffsets[v];
+            this.inOffsets[v + 1] += this.inOffsets[v];
+        }
+        this.outConstraints = new int[this.m];
+        this.inConstraints = new int[this.m];
+        final int[] outFill = new int[this.n], inFill = new int[this.n];
+        System.arraycopy(this.outOffsets, 0, outFill, 0, this.n);
+        System.arraycopy(this.inOffsets, 0, inFill, 0, this.n);
+        for (int i = 0; i < this.m; ++i) {
+            this.outConstraints[outFill[this.left[i]]++] = i;
+            this.inConstraints[inFill[this.right[i]]++] = i;
+        }
+        this.load();
+    }
+
+    /** set the id of each variable to its index in this store, after other stores may have used the variables */
+    public void identify() {
+        for (int v = 0; v < this.n; ++v) {
+            this.vars[v].id = v;
+        }
+    }
+
+    /** read the gaps and unsatisfiable flags from the constraint objects, which may have been changed since */
+    public void load() {
+        for (int i = 0; i < this.m; ++i) {
+            final Constraint c = this.constraints[i];
+            this.gap[i] = c.gap;
+            ConstraintStore.set(this.unsatisfiable, i, c.unsatisfiable);
+        }
+    }
+
+    /** write the active flags, multipliers and unsatisfiable flags back to the constraint objects */
+    public void store() {
+        for (int i = 0; i < this.m; ++i) {
+            final Constraint c = this.constraints[i];
+            c.active = this.isActive(i);
+            c.lm = this.lm[i];
+            c.unsatisfiable = this.isUnsatisfiable(i);
+        }
+    }
+
+    /** the constraint object of constraint i */
+    public Constraint constraint(final int i) {
+        return this.constraints[i];
+    }
+
+    public boolean isActive(final int i) {
+        return ConstraintStore.get(this.active, i);
+    }
+
+    public void setActive(final int i, final boolean value) {
+        ConstraintStore.set(this.active, i, value);
+    }
+
+    public boolean isEquality(final int i) {
+        return ConstraintStore.get(this.equality, i);
+    }
+
+    public boolean isUnsatisfiable(final int i) {
+        return ConstraintStore.get(this.unsatisfiable, i);
+    }
+
+    public void setUnsatisfiable(final int i, final boolean value) {
+        ConstraintStore.set(this.unsatisfiable, i, value);
+    }
+
+    public double slack(final int i) {
+        if (this.isUnsatisfiable(i)) {
+            return Double.MAX_VALUE;
+        }
+        final Variable l = this.vars[this.left[i]], r = this.vars[this.right[i]];
+        return r.scale * r.position() - this.gap[i] - l.scale * l.position();
+    }
+
+    private static boolean get(final long[] bits, final int i) {
+        return 0 != (bits[i >>> 6] & 1L << i);
+    }
+
+    private static void set(final long[] bits, final int i, final boolean value) {
+        if (value) {
+            bits[i >>> 6] |= 1L << i;
+        } else {
+            bits[i >>> 6] &= ~(1L << i);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package edu.monash.infotech.marvl.cola.vpsc;
+
+/**
+ * The kind of a user constraint:
+ *  - separation: the right node is at least gap beyond the left one, or exactly gap beyond it for an equality
+ *  - alignment: the nodes are lined up along the axis, which projection does not support yet, so these are ignored
+ */
+public enum ConstraintType {
+    separation,
+    alignment;
+
+}
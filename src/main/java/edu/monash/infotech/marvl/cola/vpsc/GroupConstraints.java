@@ -0,0 +1,163 @@
+package edu.monash.infotech.marvl.cola.vpsc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The non-overlap constraints of a group hierarchy along one axis, as VPSC.generateGroupConstraints makes them, kept from one projection
+ * to the next.  The hierarchy does not change during a layout, so the rectangles and variables of each group's level are worked out
+ * once.  Each update sweeps the levels again with the current bounds; where a level yields the same pairs as last time its constraints
+ * are kept and only their gaps and unsatisfiable flags refreshed, otherwise constraints are made for the new pairs.  While no level changes, update returns the
+ * same list, so that the solver can be warm started.
+ */
+class GroupConstraints {
+
+    private final RectAccessors f;
+    private final boolean       xAxis;
+    private final double        minSep;
+    // in the order generateGroupConstraints adds their constraints: each group's descendants before the group itself
+    private final List<Level>   levels    = new ArrayList<>();
+    private final OverlapConstraintGenerator generator = new OverlapConstraintGenerator();
+    private List<Constraint>    userConstraints;
+    private List<Constraint>    result;
+
+    private static class Level {
+
+        final Group            group;
+        final boolean          isContained;
+        final List<Rectangle>  rs = new ArrayList<>();
+        // variable at the right end of a constraint with each member, and at the left end, which for child groups is their maxVar
+        final List<Variable>   rightVars = new ArrayList<>();
+        final List<Variable>   leftVars  = new ArrayList<>();
+        final int              firstGroup;
+        // change to the gap of constraints with each child group, to allow for its padding
+        final double[]         adjustment;
+        int                    count     = -1;
+        int[]                  left      = new int[0];
+        int[]                  right     = new int[0];
+        Constraint[]           constraints = new Constraint[0];
+
+        Level(final Group group, final boolean isContained) {
+            this.group = group;
+            this.isContained = isContained;
+            if (isContained) {
+                this.rightVars.add(group.minVar);
+                this.rightVars.add(group.maxVar);
+            }
+            if (null != group.leaves) {
+                group.leaves.forEach(l -> this.rightVars.add(l.variable));
+            }
+            this.leftVars.addAll(this.rightVars);
+            this.firstGroup = this.rightVars.size();
+            if (null != group.groups) {
+                group.groups.forEach(g -> {
+                    this.rightVars.add(g.minVar);
+                    this.leftVars.add(g.maxVar);
+                });
+            }
+            this.adjustment = new double[this.rightVars.size()];
+        }
+    }
+
+    GroupConstraints(final Group root, final boolean xAxis, final double minSep) {
+        this.f = xAxis ? VPSC.xRect : VPSC.yRect;
+        this.xAxis = xAxis;
+        this.minSep = minSep;
+        this.addLevels(root, false);
+    }
+
+    private void addLevels(final Group g, final boolean isContained) {
+        if (null != g.groups) {
+            g.groups.forEach(c -> this.addLevels(c, true));
+        }
+        this.levels.add(new Level(g, isContained));
+    }
+
+    /**
+     * bring the constraints up to date with the current group bounds, which must already have been computed
+     *
+     * @param userConstraints constraints to put before the group constraints, may be null
+     * @return the user and group constraints, the same list as last time if none of them has changed
+     */
+    List<Constraint> update(final List<Constraint> userConstraints) {
+        boolean changed = null == this.result || userConstraints != this.userConstraints;
+        for (final Level l : this.levels) {
+            changed |= this.update(l);
+        }
+        if (changed) {
+            this.userConstraints = userConstraints;
+            this.result = new ArrayList<>();
+            if (null != userConstraints) {
+                this.result.addAll(userConstraints);
+            }
+            for (final Level l : this.levels) {
+                this.result.addAll(Arrays.asList(l.constraints).subList(0, l.count));
+            }
+        }
+        return this.result;
+    }
+
+    // sweep the level, returning true if its constraints are not the ones it had before
+    private boolean update(final Level l) {
+        final Group root = l.group;
+        l.rs.clear();
+        if (l.isContained) {
+            final Rectangle b = root.bounds;
+            final double padding = root.padding;
+            final double c = this.f.getCentre(b), s = this.f.getSize(b) / 2,
+                    open = this.f.getOpen(b), close = this.f.getClose(b),
+                    min = c - s + padding / 2, max = c + s - padding / 2;
+            root.minVar.desiredPosition = min;
+            l.rs.add(this.f.makeRect(open, close, min, padding));
+            root.maxVar.desiredPosition = max;
+            l.rs.add(this.f.makeRect(open, close, max, padding));
+        }
+        if (null != root.leaves) {
+            root.leaves.forEach(v -> l.rs.add(v.bounds));
+        }
+        if (null != root.groups) {
+            for (int j = 0; j < root.groups.size(); ++j) {
+                final Rectangle b = root.groups.get(j).bounds;
+                l.rs.add(this.f.makeRect(this.f.getOpen(b), this.f.getClose(b), this.f.getCentre(b), this.f.getSize(b)));
+                l.adjustment[l.firstGroup + j] = (root.groups.get(j).padding - this.f.getSize(b)) / 2;
+            }
+        }
+
+        final OverlapConstraintGenerator g = this.generator;
+        g.generate(l.rs, this.xAxis, this.minSep);
+        boolean changed = g.count != l.count;
+        for (int i = 0; !changed && i < g.count; ++i) {
+            changed = g.left[i] != l.left[i] || g.right[i] != l.right[i];
+        }
+        if (changed) {
+            // keep the constraints for pairs that were there before
+            final long n = l.rs.size();
+            final Map<Long, Constraint> previous = new HashMap<>();
+            for (int i = 0; i < l.count; ++i) {
+                previous.put(l.left[i] * n + l.right[i], l.constraints[i]);
+            }
+            l.count = g.count;
+            l.left = Arrays.copyOf(g.left, g.count);
+            l.right = Arrays.copyOf(g.right, g.count);
+            l.constraints = new Constraint[g.count];
+            for (int i = 0; i < g.count; ++i) {
+                Constraint c = previous.get(l.left[i] * n + l.right[i]);
+                if (null == c) {
+                    c = new Constraint(l.leftVars.get(l.left[i]), l.rightVars.get(l.right[i]), 0);
+                }
+                l.constraints[i] = c;
+            }
+        }
+        // padding adjustments are added in the order of the groups, as in generateGroupConstraints.  A constraint found unsatisfiable
+        // by the last solve is tried again, as it would be if it had been made afresh.
+        for (int i = 0; i < l.count; ++i) {
+            final int a = l.left[i], b = l.right[i];
+            l.constraints[i].unsatisfiable = false;
+            l.constraints[i].gap = a < b ? g.gap[i] + l.adjustment[a] + l.adjustment[b] : g.gap[i] + l.adjustment[b] + l.adjustment[a];
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,312 @@
+package edu.monash.infotech.marvl.cola.vpsc;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Generates the separation constraints that remove overlap between rectangles along one axis, as VPSC.generateConstraints does for
+ * xRect and yRect, but over primitive arrays: the rectangles are copied into double columns, events are sorted by an index sort on their
+ * positions, the scanline is a sorted int array of rectangle indices and the neighbour sets of each rectangle are small sorted int arrays.
+ * <p/>
+ * The scanline and the neighbour sets keep the semantics of the RBTree keyed on centre position that VPSC uses: a rectangle whose centre
+ * equals that of one already in a set is not inserted, and removal removes whichever member has an equal centre.  So the constraints
+ * produced, and their order, are the same as VPSC's.
+ * <p/>
+ * The results are left in the left, right and gap buffers, which together with all working arrays are reused from call to call.
+ */
+public class OverlapConstraintGenerator {
+
+    /** number of constraints generated by the last call to generate */
+    public int      count;
+    /** index into the rectangles of the left variable of each constraint */
+    public int[]    left  = new int[0];
+    /** index into the rectangles of the right variable of each constraint */
+    public int[]    right = new int[0];
+    /** separation of each constraint */
+    public double[] gap   = new double[0];
+
+    private int      n;
+    // centre, open, close and size along the axis, and the bounds for the overlap tests
+    private double[] pos   = new double[0];
+    private double[] open  = new double[0];
+    private double[] close = new double[0];
+    private double[] size  = new double[0];
+    private double[] x     = new double[0];
+    private double[] X     = new double[0];
+    private double[] y     = new double[0];
+    private double[] Y     = new double[0];
+
+    // events: e < n opens rectangle e, e >= n closes rectangle e - n
+    private int[]    events  = new int[0];
+    private int[]    sortTmp = new int[0];
+    private double[] eventKey = new double[0];
+
+    private int[]   scanline = new int[0];
+    private int     scanlineSize;
+    private int[][] prevSet  = new int[0][];
+    private int[][] nextSet  = new int[0][];
+    private int[]   prevSize = new int[0];
+    private int[]   nextSize = new int[0];
+
+    /**
+     * @param rs     the rectangles
+     * @param xAxis  true for constraints in x between rectangles overlapping in y (as xRect), false for constraints in y (as yRect)
+     * @param minSep extra separation added to each constraint
+     */
+    public void generate(final List<Rectangle> rs, final boolean xAxis, final double minSep) {
+        final RectAccessors rect = xAxis ? VPSC.xRect : VPSC.yRect;
+        this.n = rs.size();
+        final int n = this.n, N = 2 * n;
+        this.ensureCapacity(n);
+        for (int i = 0; i < n; ++i) {
+            final Rectangle r = rs.get(i);
+            this.pos[i] = rect.getCentre(r);
+            this.open[i] = rect.getOpen(r);
+            this.close[i] = rect.getClose(r);
+            this.size[i] = rect.getSize(r);
+            this.x[i] = r.x;
+            this.X[i] = r.X;
+            this.y[i] = r.y;
+            this.Y[i] = r.Y;
+            this.prevSize[i] = 0;
+            this.nextSize[i] = 0;
+            this.events[i] = i;
+            this.events[i + n] = i + n;
+            this.eventKey[i] = this.open[i];
+            this.eventKey[i + n] = this.close[i];
+        }
+        this.sortEvents(N);
+
+        this.count = 0;
+        this.scanlineSize = 0;
+        for (int k = 0; k < N; ++k) {
+            final int e = this.events[k];
+            if (e < n) {
+                this.insert(e);
+                if (xAxis) {
+                    this.findXNeighbours(e);
+                } else {
+                    this.findYNeighbours(e);
+                }
+            } else {
+                final int v = e - n;
+                this.remove(v);
+                int i = this.prevSize[v];
+                while (0 < i--) {
+                    final int u = this.prevSet[v][i];
+                    this.emit(u, v, minSep);
+                    this.setRemove(this.nextSet, this.nextSize, u, this.pos[v]);
+                }
+                for (i = 0; i < this.nextSize[v]; ++i) {
+                    final int u = this.nextSet[v][i];
+                    this.emit(u, v, minSep);
+                    this.setRemove(this.prevSet, this.prevSize, u, this.pos[v]);
+                }
+            }
+        }
+    }
+
+    private void ensureCapacity(final int n) {
+        if (this.pos.length >= n) {
+            return;
+        }
+        this.pos = new double[n];
+        this.open = new double[n];
+        this.close = new double[n];
+        this.size = new double[n];
+        this.x = new double[n];
+        this.X = new double[n];
+        this.y = new double[n];
+        this.Y = new double[n];
+        this.events = new int[2 * n];
+        this.sortTmp = new int[2 * n];
+        this.eventKey = new double[2 * n];
+        this.scanline = new int[n];
+        final int old = this.prevSet.length;
+        this.prevSet = Arrays.copyOf(this.prevSet, n);
+        this.nextSet = Arrays.copyOf(this.nextSet, n);
+        for (int i = old; i < n; ++i) {
+            this.prevSet[i] = new int[2];
+            this.nextSet[i] = new int[2];
+        }
+        this.prevSize = new int[n];
+        this.nextSize = new int[n];
+    }
+
+    // order events by position, then by index, which is the stable order of VPSC.compareEvents: at equal positions opens (indices
+    // below n) come before closes
+    private void sortEvents(final int N) {
+        final int[] sorted = OverlapConstraintGenerator.sort(this.events, this.sortTmp, this.eventKey, N);
+        if (sorted != this.events) {
+            this.sortTmp = this.events;
+            this.events = sorted;
+        }
+    }
+
+    /**
+     * bottom up merge sort of items by key, then by item
+     *
+     * @param items the items to sort, in [0, count)
+     * @param tmp   work array at least as long as count
+     * @param keys  key of each item
+     * @return whichever of items and tmp holds the sorted items
+     */
+    static int[] sort(final int[] items, final int[] tmp, final double[] keys, final int count) {
+        int[] src = items, dst = tmp;
+        for (int width = 1; width < count; width *= 2) {
+            for (int lo = 0; lo < count; lo += 2 * width) {
+                final int mid = Math.min(lo + width, count), hi = Math.min(lo + 2 * width, count);
+                int i = lo, j = mid, k = lo;
+                while (i < mid && j < hi) {
+                    final int a = src[i], b = src[j];
+                    final boolean bFirst = keys[b] < keys[a] || !(keys[b] > keys[a]) && b < a;
+                    dst[k++] = bFirst ? src[j++] : src[i++];
+                }
+                while (i < mid) {
+                    dst[k++] = src[i++];
+                }
+                while (j < hi) {
+                    dst[k++] = src[j++];
+                }
+            }
+            final int[] t = src;
+            src = dst;
+            dst = t;
+        }
+        return src;
+    }
+
+    private void emit(final int l, final int r, final double minSep) {
+        if (this.count == this.left.length) {
+            final int c = Math.max(16, 2 * this.count);
+            this.left = Arrays.copyOf(this.left, c);
+            this.right = Arrays.copyOf(this.right, c);
+            this.gap = Arrays.copyOf(this.gap, c);
+        }
+        this.left[this.count] = l;
+        this.right[this.count] = r;
+        this.gap[this.count++] = (this.size[l] + this.size[r]) / 2.0 + minSep;
+    }
+
+    // index in a sorted array of rectangles of the one with centre p, or -(insertion point) - 1 if there is none
+    private int search(final int[] a, final int length, final double p) {
+        int lo = 0, hi = length - 1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            final double q = this.pos[a[mid]];
+            if (q < p) {
+                lo = mid + 1;
+            } else if (q > p) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    private void insert(final int v) {
+        final int i = this.search(this.scanline, this.scanlineSize, this.pos[v]);
+        if (0 > i) {
+            final int at = -(i + 1);
+            System.arraycopy(this.scanline, at, this.scanline, at + 1, this.scanlineSize - at);
+            this.scanline[at] = v;
+            ++this.scanlineSize;
+        }
+    }
+
+    private void remove(final int v) {
+        final int i = this.search(this.scanline, this.scanlineSize, this.pos[v]);
+        if (0 <= i) {
+            System.arraycopy(this.scanline, i + 1, this.scanline, i, --this.scanlineSize - i);
+        }
+    }
+
+    private void setInsert(final int[][] sets, final int[] sizes, final int v, final int u) {
+        final int i = this.search(sets[v], sizes[v], this.pos[u]);
+        if (0 > i) {
+            final int at = -(i + 1);
+            if (sizes[v] == sets[v].length) {
+                sets[v] = Arrays.copyOf(sets[v], 2 * sizes[v]);
+            }
+            System.arraycopy(sets[v], at, sets[v], at + 1, sizes[v] - at);
+            sets[v][at] = u;
+            ++sizes[v];
+        }
+    }
+
+    private void setRemove(final int[][] sets, final int[] sizes, final int v, final double p) {
+        final int i = this.search(sets[v], sizes[v], p);
+        if (0 <= i) {
+            System.arraycopy(sets[v], i + 1, sets[v], i, --sizes[v] - i);
+        }
+    }
+
+    // as Rectangle.overlapX and overlapY for rectangles u and v
+    private double overlapX(final int u, final int v) {
+        final double ux = (this.x[u] + this.X[u]) / 2.0, vx = (this.x[v] + this.X[v]) / 2.0;
+        if (ux <= vx && this.x[v] < this.X[u]) {
+            return this.X[u] - this.x[v];
+        }
+        if (vx <= ux && this.x[u] < this.X[v]) {
+            return this.X[v] - this.x[u];
+        }
+        return 0;
+    }
+
+    private double overlapY(final int u, final int v) {
+        final double uy = (this.y[u] + this.Y[u]) / 2.0, vy = (this.y[v] + this.Y[v]) / 2.0;
+        if (uy <= vy && this.y[v] < this.Y[u]) {
+            return this.Y[u] - this.y[v];
+        }
+        if (vy <= uy && this.y[u] < this.Y[v]) {
+            return this.Y[v] - this.y[u];
+        }
+        return 0;
+    }
+
+    // as VPSC.findXNeighbours, scanning out from the scanline entry with v's centre (which may be another rectangle with the same centre)
+    private void findXNeighbours(final int v) {
+        final int at = this.search(this.scanline, this.scanlineSize, this.pos[v]);
+        for (int i = at + 1; i < this.scanlineSize; ++i) {
+            final int u = this.scanline[i];
+            final double uovervX = this.overlapX(u, v);
+            if (0 >= uovervX || uovervX <= this.overlapY(u, v)) {
+                this.setInsert(this.nextSet, this.nextSize, v, u);
+                this.setInsert(this.prevSet, this.prevSize, u, v);
+            }
+            if (0 >= uovervX) {
+                break;
+            }
+        }
+        for (int i = at - 1; 0 <= i; --i) {
+            final int u = this.scanline[i];
+            final double uovervX = this.overlapX(u, v);
+            if (0 >= uovervX || uovervX <= this.overlapY(u, v)) {
+                this.setInsert(this.prevSet, this.prevSize, v, u);
+                this.setInsert(this.nextSet, this.nextSize, u, v);
+            }
+            if (0 >= uovervX) {
+                break;
+            }
+        }
+    }
+
+    private void findYNeighbours(final int v) {
+        final int at = this.search(this.scanline, this.scanlineSize, this.pos[v]);
+        if (at + 1 < this.scanlineSize) {
+            final int u = this.scanline[at + 1];
+            if (0 < this.overlapX(u, v)) {
+                this.setInsert(this.nextSet, this.nextSize, v, u);
+                this.setInsert(this.prevSet, this.prevSize, u, v);
+            }
+        }
+        if (0 < at) {
+            final int u = this.scanline[at - 1];
+            if (0 < this.overlapX(u, v)) {
+                this.setInsert(this.prevSet, this.prevSize, v, u);
+                this.setInsert(this.nextSet, this.nextSize, u, v);
+            }
+        }
+    }
+}
@@ -3,13 +3,12 @@ package edu.monash.infotech.marvl.cola.vpsc;
 import edu.monash.infotech.marvl.cola.TriConsumer;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.ToDoubleFunction;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 public class Projection {
 
@@ -20,6 +19,17 @@ public class Projection {
     private List<Group>      groups;
     private Group            rootGroup;
     private boolean          avoidOverlaps;
+    // the solver for each axis from the last projection, kept to warm start the next one while the constraints are unchanged
+    private final Solver[]   solvers = new Solver[2];
+    private final ComponentSolver[] componentSolvers = new ComponentSolver[2];
+    // the group constraints for each axis, kept up to date from one projection to the next
+    private final GroupConstraints[] groupConstraints = new GroupConstraints[2];
+
+    /** if set, independent components of the constraint graph are solved in parallel using this pool */
+    public ForkJoinPool pool;
+
+    /** if set, the work done by the solver in each projection is added to these counters */
+    public SolverStats stats;
 
     public Projection(final List<GraphNode> nodes, final List<Group> groups) {
         this(nodes, groups, null);
@@ -90,12 +100,12 @@ public class Projection {
     }
 
     private void createConstraints(final List<Constraint> constraints) {
-        final Function<Constraint, Boolean> isSep = c -> null == c.type || "separation".equals(c.type);
+        final Function<Constraint, Boolean> isSep = c -> null == c.type || ConstraintType.separation == c.type;
         this.xConstraints = constraints.stream()
-                                       .filter(c -> "x".equals(c.axis) && isSep.apply(c))
+                                       .filter(c -> ConstraintAxis.x == c.axis && isSep.apply(c))
                                        .map(c -> this.createSeparation(c)).collect(Collectors.toList());
         this.yConstraints = constraints.stream()
-                                       .filter(c -> "y".equals(c.axis) && isSep.apply(c))
+                                       .filter(c -> ConstraintAxis.y == c.axis && isSep.apply(c))
                                        .map(c -> this.createSeparation(c)).collect(Collectors.toList());
     }
 
@@ -104,11 +114,10 @@ public class Projection {
     {
         for (int i = 0; i < nodes.size(); i++) {
             final GraphNode v = nodes.get(i);
+            // fixed nodes are held exactly at their desired position by the solver
+            v.variable.fixed = v.fixed;
             if (v.fixed) {
-                v.variable.weight = 1000;
                 desired[i] = getDesired.applyAsDouble(v);
-            } else {
-                v.variable.weight = 1;
             }
             final double w = v.width / 2.0, h = v.height / 2.0;
             final double ix = x0[i], iy = y0[i];
@@ -120,7 +129,7 @@ public class Projection {
         if (null == this.rootGroup && !(this.avoidOverlaps || null != this.xConstraints)) {
             return;
         }
-        this.project(x0, y0, x0, x, v -> v.px, this.xConstraints, g -> VPSC.generateXGroupConstraints(g).toArray(new Constraint[1]),
+        this.project(0, x0, y0, x0, x, v -> v.px, this.xConstraints,
                      v -> {
                          final double cx = v.variable.position();
                          x[v.variable.index] = cx;
@@ -141,7 +150,7 @@ public class Projection {
         if (null == this.rootGroup && null == this.yConstraints) {
             return;
         }
-        this.project(x0, y0, y0, y, v -> v.py, this.yConstraints, g -> VPSC.generateYGroupConstraints(g).toArray(new Constraint[1]),
+        this.project(1, x0, y0, y0, y, v -> v.py, this.yConstraints,
                      v -> {
                          final double cy = v.variable.position();
                          y[v.variable.index] = cy;
@@ -166,10 +175,9 @@ public class Projection {
         return result;
     }
 
-    private void project(final double[] x0, final double[] y0, final double[] start, final double[] desired,
+    private void project(final int axis, final double[] x0, final double[] y0, final double[] start, final double[] desired,
                          ToDoubleFunction<GraphNode> getDesired,
                          List<Constraint> cs,
-                         Function<Group, Constraint[]> generateConstraints,
                          Consumer<GraphNode> updateNodeBounds,
                          Consumer<Group> updateGroupBounds)
 
@@ -177,17 +185,54 @@ public class Projection {
         this.setupVariablesAndBounds(x0, y0, desired, getDesired);
         if (null != this.rootGroup && this.avoidOverlaps) {
             VPSC.computeGroupBounds(this.rootGroup);
-            cs = Stream.concat(cs.stream(), Arrays.stream(generateConstraints.apply(this.rootGroup))).collect(Collectors.toList());
+            if (null == this.groupConstraints[axis]) {
+                this.groupConstraints[axis] = new GroupConstraints(this.rootGroup, 0 == axis, 1e-6);
+            }
+            cs = this.groupConstraints[axis].update(cs);
         }
-        this.solve(this.variables, cs, start, desired);
+        this.solve(axis, this.variables, cs, start, desired);
         this.nodes.forEach(updateNodeBounds);
         if (null != this.rootGroup && this.avoidOverlaps) {
             this.groups.forEach(updateGroupBounds);
         }
     }
 
-    private void solve(List<Variable> vs, List<Constraint> cs, double[] starting, double[] desired) {
-        final Solver solver = new Solver(vs, cs);
+    // positions move little between projections, so if the constraints are the same list as last time on this axis the previous solver
+    // is resumed from its block structure, otherwise a new one is built.  With a pool, the components of the constraint graph are solved
+    // in parallel, unless there is only one.
+    private void solve(final int axis, List<Variable> vs, List<Constraint> cs, double[] starting, double[] desired) {
+        Solver solver = this.solvers[axis];
+        if (null != solver && solver.vs == vs && solver.cs == cs) {
+            solver.stats = this.stats;
+            solver.setDesiredPositions(desired);
+            solver.resume();
+            return;
+        }
+        ComponentSolver componentSolver = this.componentSolvers[axis];
+        if (null != componentSolver && componentSolver.vs == vs && componentSolver.cs == cs) {
+            componentSolver.stats = this.stats;
+            componentSolver.setDesiredPositions(desired);
+            componentSolver.resume();
+            return;
+        }
+        this.solvers[axis] = null;
+        this.componentSolvers[axis] = null;
+        if (null != this.pool) {
+            componentSolver = new ComponentSolver(vs, cs, this.pool);
+            if (1 < componentSolver.solvers.length) {
+                this.componentSolvers[axis] = componentSolver;
+                componentSolver.stats = this.stats;
+                componentSolver.setStartingPositions(starting);
+                componentSolver.setDesiredPositions(desired);
+                componentSolver.solve();
+                return;
+            }
+            solver = componentSolver.solvers[0];
+        } else {
+            solver = new Solver(vs, cs);
+        }
+        this.solvers[axis] = solver;
+        solver.stats = this.stats;
         solver.setStartingPositions(starting);
         solver.setDesiredPositions(desired);
         solver.solve();
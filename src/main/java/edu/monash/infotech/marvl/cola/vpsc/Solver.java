@@ -1,8 +1,9 @@
 package edu.monash.infotech.marvl.cola.vpsc;
 
+import edu.monash.infotech.marvl.cola.IndexedHeap;
+
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
 public class Solver {
 
@@ -10,28 +11,95 @@ public class Solver {
     public static final double ZERO_UPPERBOUND      = -1e-10;
 
     public Blocks           bs;
-    public List<Constraint> inactive;
     public List<Variable>   vs;
     public List<Constraint> cs;
+    /** the constraints as the solver works on them, the Constraint objects are updated from it when a solve finishes */
+    public ConstraintStore  store;
+    /** if set, the work done by each solve is added to these counters */
+    public SolverStats      stats;
+
+    // vs followed by a fixed variable for each finite bound, and cs followed by the constraints to them
+    private List<Variable>   variables;
+    private List<Constraint> constraints;
+    // the variable each bound variable after those of vs bounds, and whether it is the lower or upper bound
+    private int[]            boundOf;
+    private boolean[]        isLower;
+
+    // the inactive constraints that are not unsatisfiable, keyed by slack, so that satisfy() finds the most violated without scanning
+    // them all.  The keys are brought up to date at the start of each satisfy() and, as blocks move, for the constraints on their
+    // boundaries.
+    private IndexedHeap violated;
+
+    // the block and offset of each variable as this solver left them, so that a later resume() can restore them after another solver
+    // over the same variables has been used
+    private Block[]  savedBlocks;
+    private double[] savedOffsets;
 
     public Solver(final List<Variable> vs, final List<Constraint> cs) {
         //noinspection AssignmentToCollectionOrArrayFieldFromParameter
         this.vs = vs;
-        vs.forEach(v -> {
-            v.cIn = new ArrayList<>();
-            v.cOut = new ArrayList<>();
-        });
         //noinspection AssignmentToCollectionOrArrayFieldFromParameter
         this.cs = cs;
-        cs.forEach(c -> {
-            c.left.cOut.add(c);
-            c.right.cIn.add(c);
-        });
-        this.inactive = cs.stream().map(c -> {
-            c.active = false;
-            return c;
-        }).collect(Collectors.toList());
         this.bs = null;
+        this.setupBounds();
+    }
+
+    // add a fixed variable and a constraint to it for each finite bound, and build the store over them
+    private void setupBounds() {
+        final List<Variable> vs = this.vs;
+        final List<Constraint> cs = this.cs;
+        final List<Integer> bounded = new ArrayList<>();
+        for (int i = 0; i < vs.size(); ++i) {
+            final Variable v = vs.get(i);
+            if (Double.NEGATIVE_INFINITY != v.lowerBound) {
+                bounded.add(i);
+            }
+            if (Double.POSITIVE_INFINITY != v.upperBound) {
+                bounded.add(-1 - i);
+            }
+        }
+        if (bounded.isEmpty()) {
+            this.variables = vs;
+            this.constraints = cs;
+            this.boundOf = new int[0];
+            this.isLower = new boolean[0];
+        } else {
+            this.variables = new ArrayList<>(vs);
+            this.constraints = new ArrayList<>(cs);
+            this.boundOf = new int[bounded.size()];
+            this.isLower = new boolean[bounded.size()];
+            for (int k = 0; k < bounded.size(); ++k) {
+                final int b = bounded.get(k);
+                final boolean lower = 0 <= b;
+                final Variable v = vs.get(lower ? b : -1 - b);
+                final Variable bound = new Variable(lower ? v.lowerBound : v.upperBound, 1, v.scale);
+                bound.fixed = true;
+                this.variables.add(bound);
+                this.constraints.add(lower ? new Constraint(bound, v, 0) : new Constraint(v, bound, 0));
+                this.boundOf[k] = lower ? b : -1 - b;
+                this.isLower[k] = lower;
+            }
+        }
+        this.store = new ConstraintStore(this.variables, this.constraints);
+        this.violated = new IndexedHeap(this.store.m);
+        this.deactivateAll();
+    }
+
+    private void deactivateAll() {
+        for (int i = 0; i < this.store.m; ++i) {
+            this.store.setActive(i, false);
+        }
+        this.fillViolated();
+    }
+
+    // put the inactive constraints on the heap, their keys are set by the next satisfy()
+    private void fillViolated() {
+        this.violated.clear();
+        for (int i = 0; i < this.store.m; ++i) {
+            if (!this.store.isActive(i) && !this.store.isUnsatisfiable(i)) {
+                this.violated.push(i, 0);
+            }
+        }
     }
 
     public double cost() {
@@ -41,13 +109,11 @@ public class Solver {
     // set starting positions without changing desired positions.
     // Note: it throws away any previous block structure.
     public void setStartingPositions(final double[] ps) {
-        this.inactive = this.cs.stream().map(c -> {
-            c.active = false;
-            return c;
-        }).collect(Collectors.toList());
-        this.bs = new Blocks(this.vs);
+        this.store.identify();
+        this.deactivateAll();
+        this.bs = new Blocks(this.variables, this.store);
 
-        for (int i = 0, n = bs.list.size(); i < n; ++i) {
+        for (int i = 0, n = this.vs.size(); i < n; ++i) {
             final Block b = bs.list.get(i);
             b.posn = ps[i];
         }
@@ -59,83 +125,233 @@ public class Solver {
         }
     }
 
-    private Constraint mostViolated() {
-        double minSlack = Double.MAX_VALUE;
-        Constraint v = null;
-        List<Constraint> l = this.inactive;
-        final int n = l.size();
-        int deletePoint = n;
-        for (int i = 0; i < n; ++i) {
-            final Constraint c = l.get(i);
-            if (c.unsatisfiable) {
-                continue;
-            }
-            final double slack = c.slack();
-            if (c.equality || slack < minSlack) {
-                minSlack = slack;
-                v = c;
-                deletePoint = i;
-                if (c.equality) {
-                    break;
-                }
-            }
+    // key of an inactive constraint in the violation heap: equality constraints come first, then the least slack
+    private double violation(final int c) {
+        return this.store.isEquality(c) ? Double.NEGATIVE_INFINITY : this.store.slack(c);
+    }
+
+    // the inactive constraint with the least slack, taken off the heap if it is to be satisfied, or -1
+    private int mostViolated() {
+        if (null != this.stats) {
+            ++this.stats.mostViolatedScans;
+        }
+        if (this.violated.empty()) {
+            return -1;
         }
-        if (deletePoint != n &&
-            (Solver.ZERO_UPPERBOUND > minSlack && !v.active || v.equality)) {
-            l.set(deletePoint, l.get(n - 1));
-            l.remove(n - 1);
+        final int v = this.violated.top();
+        if (Solver.ZERO_UPPERBOUND > this.store.slack(v) && !this.store.isActive(v) || this.store.isEquality(v)) {
+            this.violated.pop();
         }
         return v;
     }
 
+    private void pushInactive(final int c) {
+        if (!this.store.isUnsatisfiable(c)) {
+            this.violated.push(c, this.violation(c));
+        }
+    }
+
+    // the slacks of the constraints between a block and others change when it moves.  Those that a merge has just brought inside the
+    // block have had their slacks changed by it too, they are updated once more and then dropped from the boundary.
+    private void blockMoved(final Block b) {
+        final ConstraintStore cs = this.store;
+        int kept = 0;
+        for (int i = 0; i < b.boundaryCount; ++i) {
+            final int c = b.boundary[i];
+            this.updateViolation(c);
+            if (cs.vars[cs.left[c]].block != cs.vars[cs.right[c]].block) {
+                b.boundary[kept++] = c;
+            }
+        }
+        b.boundaryCount = kept;
+    }
+
+    private void updateViolation(final int c) {
+        if (this.violated.contains(c)) {
+            this.violated.update(c, this.violation(c));
+        }
+    }
+
     // satisfy constraints by building block structure over violated constraints
     // and moving the blocks to their desired positions
     public void satisfy() {
+        final ConstraintStore cs = this.store;
         if (null == this.bs) {
-            this.bs = new Blocks(this.vs);
+            cs.identify();
+            this.bs = new Blocks(this.variables, cs);
+        }
+        this.bs.stats = this.stats;
+        if (null != this.stats) {
+            ++this.stats.satisfyRounds;
         }
-        this.bs.split(this.inactive);
-        Constraint v = null;
-        while (null != (v = this.mostViolated()) && (v.equality || Solver.ZERO_UPPERBOUND > v.slack() && !v.active)) {
-            final Block lb = v.left.block, rb = v.right.block;
+        this.bs.split(c -> this.pushInactive(c));
+        // every block may have moved to its new desired position
+        this.violated.updateAll(c -> this.violation(c));
+        int v;
+        while (-1 != (v = this.mostViolated()) && (cs.isEquality(v) || Solver.ZERO_UPPERBOUND > cs.slack(v) && !cs.isActive(v))) {
+            final Variable left = cs.vars[cs.left[v]], right = cs.vars[cs.right[v]];
+            final Block lb = left.block, rb = right.block;
             if (lb != rb) {
-                this.bs.merge(v);
+                this.merge(v);
             } else {
-                if (lb.isActiveDirectedPathBetween(v.right, v.left)) {
+                if (lb.isActiveDirectedPathBetween(cs.right[v], cs.left[v])) {
                     // cycle found!
-                    v.unsatisfiable = true;
+                    this.markUnsatisfiable(v);
                     continue;
                 }
                 // constraint is within block, need to split first
-                BlockSplit split = lb.splitBetween(v.left, v.right);
+                BlockSplit split = lb.splitBetween(cs.left[v], cs.right[v]);
                 if (null != split) {
+                    if (null != this.stats) {
+                        ++this.stats.splits;
+                    }
                     this.bs.insert(split.lb);
                     this.bs.insert(split.rb);
                     this.bs.remove(lb);
-                    this.inactive.add(split.constraint);
+                    this.pushInactive(split.constraint);
+                    this.blockMoved(split.lb);
+                    this.blockMoved(split.rb);
                 } else {
-                    v.unsatisfiable = true;
+                    this.markUnsatisfiable(v);
                     continue;
                 }
-                if (0 <= v.slack()) {
+                if (0 <= cs.slack(v)) {
                     // v was satisfied by the above split!
-                    this.inactive.add(v);
+                    this.pushInactive(v);
                 } else {
-                    this.bs.merge(v);
+                    this.merge(v);
                 }
             }
         }
     }
 
+    // merge the blocks either side of a violated constraint, unless they are both pinned
+    private void merge(final int c) {
+        final Variable left = this.store.vars[this.store.left[c]], right = this.store.vars[this.store.right[c]];
+        if (null != left.block.pinned && null != right.block.pinned) {
+            this.markUnsatisfiable(c);
+            return;
+        }
+        this.bs.merge(c);
+        this.blockMoved(left.block);
+    }
+
+    private void markUnsatisfiable(final int c) {
+        this.store.setUnsatisfiable(c, true);
+        if (null != this.stats) {
+            ++this.stats.unsatisfiable;
+        }
+    }
+
     // repeatedly build and split block structure until we converge to an optimal solution
     public double solve() {
+        final long start = null != this.stats ? System.nanoTime() : 0;
+        this.updateBounds();
+        final double cost = this.converge();
+        this.saveState();
+        if (null != this.stats) {
+            ++this.stats.solves;
+            this.stats.nanos += System.nanoTime() - start;
+        }
+        return cost;
+    }
+
+    // satisfy until the cost stops changing
+    double converge() {
         this.satisfy();
         double lastcost = Double.MAX_VALUE, cost = this.bs.cost();
         while (0.0001 < Math.abs(lastcost - cost)) {
             this.satisfy();
             lastcost = cost;
             cost = this.bs.cost();
+            if (null != this.stats) {
+                ++this.stats.costIterations;
+            }
         }
         return cost;
     }
+
+    /**
+     * solve again after desired positions or weights have changed, starting from the block structure and active constraints of the
+     * previous solve rather than from scratch.  Blocks whose constraints no longer hold them together are split by satisfy().  The
+     * variables and constraints must be the same as for the previous solve, though other solvers may have used the variables since, and
+     * the constraint gaps may have changed.
+     */
+    public double resume() {
+        this.updateBounds();
+        if (this.canResume()) {
+            this.restoreState();
+        }
+        return this.solve();
+    }
+
+    // move the bound variables to the current bounds.  If a bound has been set or cleared since, the bound variables and constraints are
+    // set up again and the block structure is thrown away, so that the next solve starts from scratch.
+    void updateBounds() {
+        if (this.boundsChanged()) {
+            this.setupBounds();
+            this.bs = null;
+            this.savedBlocks = null;
+            this.savedOffsets = null;
+            return;
+        }
+        for (int k = 0; k < this.boundOf.length; ++k) {
+            final Variable v = this.vs.get(this.boundOf[k]);
+            this.variables.get(this.vs.size() + k).desiredPosition = this.isLower[k] ? v.lowerBound : v.upperBound;
+        }
+    }
+
+    // whether the finite bounds are not those the bound variables were set up for
+    private boolean boundsChanged() {
+        int k = 0;
+        for (int i = 0; i < this.vs.size(); ++i) {
+            final Variable v = this.vs.get(i);
+            if (Double.NEGATIVE_INFINITY != v.lowerBound) {
+                if (k == this.boundOf.length || i != this.boundOf[k] || !this.isLower[k]) {
+                    return true;
+                }
+                ++k;
+            }
+            if (Double.POSITIVE_INFINITY != v.upperBound) {
+                if (k == this.boundOf.length || i != this.boundOf[k] || this.isLower[k]) {
+                    return true;
+                }
+                ++k;
+            }
+        }
+        return k != this.boundOf.length;
+    }
+
+    boolean canResume() {
+        return null != this.bs && null != this.savedBlocks;
+    }
+
+    void restoreState() {
+        this.store.identify();
+        this.store.load();
+        // constraints may no longer be unsatisfiable
+        this.fillViolated();
+        for (int i = 0, n = this.variables.size(); i < n; ++i) {
+            final Variable v = this.variables.get(i);
+            v.block = this.savedBlocks[i];
+            v.offset = this.savedOffsets[i];
+        }
+        // the gaps of active constraints may have changed since
+        this.bs.list.forEach(b -> b.updateOffsets());
+    }
+
+    // keep the block structure for resume(), and publish the solution to the Constraint objects
+    void saveState() {
+        final int n = this.variables.size();
+        if (null == this.savedBlocks) {
+            this.savedBlocks = new Block[n];
+            this.savedOffsets = new double[n];
+        }
+        for (int i = 0; i < n; ++i) {
+            final Variable v = this.variables.get(i);
+            this.savedBlocks[i] = v.block;
+            this.savedOffsets[i] = v.offset;
+        }
+        this.store.store();
+    }
 }
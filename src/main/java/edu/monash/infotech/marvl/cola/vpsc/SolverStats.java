@@ -0,0 +1,74 @@
+package edu.monash.infotech.marvl.cola.vpsc;
+
+/**
+ * Counters for the work done by VPSC solves.  A Solver, ComponentSolver or Projection only counts when its stats field is set, and adds
+ * to whatever totals the object already holds, so one SolverStats can be shared by all the solves of interest.  Not thread safe: a
+ * ComponentSolver gives each of its components its own counters and adds them up after the solve.
+ */
+public class SolverStats {
+
+    /** calls to solve or resume */
+    public long solves;
+    /** rounds of satisfy after the first in each solve, until the cost stopped changing */
+    public long costIterations;
+    public long satisfyRounds;
+    /** blocks merged across a violated constraint */
+    public long merges;
+    /** blocks split, across a constraint with a negative multiplier or to satisfy a constraint within a block */
+    public long splits;
+    /** times the most violated constraint was looked for */
+    public long mostViolatedScans;
+    /** constraints found to be unsatisfiable */
+    public long unsatisfiable;
+    /** time spent in solve or resume */
+    public long nanos;
+
+    public SolverStats copy() {
+        final SolverStats s = new SolverStats();
+        s.add(this);
+        return s;
+    }
+
+    public void reset() {
+        this.solves = 0;
+        this.costIterations = 0;
+        this.satisfyRounds = 0;
+        this.merges = 0;
+        this.splits = 0;
+        this.mostViolatedScans = 0;
+        this.unsatisfiable = 0;
+        this.nanos = 0;
+    }
+
+    public void add(final SolverStats s) {
+        this.solves += s.solves;
+        this.costIterations += s.costIterations;
+        this.satisfyRounds += s.satisfyRounds;
+        this.merges += s.merges;
+        this.splits += s.splits;
+        this.mostViolatedScans += s.mostViolatedScans;
+        this.unsatisfiable += s.unsatisfiable;
+        this.nanos += s.nanos;
+    }
+
+    /** the counts since an earlier copy of these stats */
+    public SolverStats since(final SolverStats earlier) {
+        final SolverStats s = this.copy();
+        s.solves -= earlier.solves;
+        s.costIterations -= earlier.costIterations;
+        s.satisfyRounds -= earlier.satisfyRounds;
+        s.merges -= earlier.merges;
+        s.splits -= earlier.splits;
+        s.mostViolatedScans -= earlier.mostViolatedScans;
+        s.unsatisfiable -= earlier.unsatisfiable;
+        s.nanos -= earlier.nanos;
+        return s;
+    }
+
+    @Override
+    public String toString() {
+        return "solves " + this.solves + ", cost iterations " + this.costIterations + ", satisfy rounds " + this.satisfyRounds
+               + ", merges " + this.merges + ", splits " + this.splits + ", most violated scans " + this.mostViolatedScans
+               + ", unsatisfiable " + this.unsatisfiable + ", " + this.nanos / 1000000.0 + "ms";
+    }
+}
@@ -5,7 +5,10 @@ import edu.monash.infotech.marvl.cola.geom.Point;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
@@ -187,20 +190,26 @@ public class VPSC {
         }
         final List<Constraint> cs = generateConstraints(rs, vs, f, minSep);
         if (0 < gn) {
-            vs.forEach(v -> {
-                v.cOut = new ArrayList<>();
-                v.cIn = new ArrayList<>();
+            // the constraints into and out of each group's min variable
+            final Map<Variable, List<Constraint>> cIn = new IdentityHashMap<>(), cOut = new IdentityHashMap<>();
+            root.groups.forEach(g -> {
+                cIn.put(g.minVar, new ArrayList<>());
+                cOut.put(g.minVar, new ArrayList<>());
             });
             cs.forEach(c -> {
-                c.left.cOut.add(c);
-                c.right.cIn.add(c);
+                if (cOut.containsKey(c.left)) {
+                    cOut.get(c.left).add(c);
+                }
+                if (cIn.containsKey(c.right)) {
+                    cIn.get(c.right).add(c);
+                }
             });
             root.groups.stream().forEach(g -> {
                 final double gapAdjustment = (g.padding - f.getSize(g.bounds)) / 2;
-                g.minVar.cIn.forEach(c -> {
+                cIn.get(g.minVar).forEach(c -> {
                     c.gap += gapAdjustment;
                 });
-                g.minVar.cOut.forEach(c -> {
+                cOut.get(g.minVar).forEach(c -> {
                     c.left = g.maxVar;
                     c.gap += gapAdjustment;
                 });
@@ -210,9 +219,21 @@ public class VPSC {
         return childConstraints;
     }
 
+    // working arrays of the sweep for xRect and yRect, reused between calls on the same thread
+    private static final ThreadLocal<OverlapConstraintGenerator> generator = ThreadLocal.withInitial(OverlapConstraintGenerator::new);
+
     public static List<Constraint> generateConstraints(final List<Rectangle> rs, final List<Variable> vars, final RectAccessors rect,
                                                             final double minSep)
     {
+        if (rect == xRect || rect == yRect) {
+            final OverlapConstraintGenerator g = generator.get();
+            g.generate(rs, rect == xRect, minSep);
+            final List<Constraint> cs = new ArrayList<>(g.count);
+            for (int i = 0; i < g.count; ++i) {
+                cs.add(new Constraint(vars.get(g.left[i]), vars.get(g.right[i]), g.gap[i]));
+            }
+            return cs;
+        }
         int i;
         final int n = rs.size();
         final int N = 2 * n;
@@ -339,4 +360,14 @@ public class VPSC {
         }
     }
 
+    /**
+     * remove overlaps between rectangles packed as {x, X, y, Y} for each in turn, writing the moved bounds back in place.  Clusters of
+     * overlapping rectangles are solved separately, in parallel if pool is not null.
+     *
+     * @return the number of rectangles left overlapping another
+     */
+    public static int removeOverlaps(final double[] bounds, final ForkJoinPool pool) {
+        return BatchOverlapRemoval.removeOverlaps(bounds, pool);
+    }
+
 }
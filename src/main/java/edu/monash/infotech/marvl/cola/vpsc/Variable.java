@@ -1,18 +1,19 @@
 package edu.monash.infotech.marvl.cola.vpsc;
 
-import edu.monash.infotech.marvl.cola.TriConsumer;
-
-import java.util.List;
-
 public class Variable {
 
     public double offset = 0;
     public Block            block;
-    public List<Constraint> cIn;
-    public List<Constraint> cOut;
     public double           desiredPosition;
     public double           weight;
     public double           scale;
+    /** a fixed variable is held at its desired position */
+    public boolean          fixed;
+    /** the variable is kept within these bounds, by constraints to fixed variables that the solver adds */
+    public double           lowerBound = Double.NEGATIVE_INFINITY;
+    public double           upperBound = Double.POSITIVE_INFINITY;
+    // index of the variable in the ConstraintStore of the solver that last used it
+    int id;
 
     public Variable(final double desiredPosition) {
         this(desiredPosition, 1.0);
@@ -35,18 +36,4 @@ public class Variable {
     public double position() {
         return (this.block.ps.scale * this.block.posn + this.offset) / this.scale;
     }
-
-    // visit neighbours by active constraints within the same block
-    public void visitNeighbours(final Variable prev, final TriConsumer<Constraint, Variable, ValueHolder> f, final ValueHolder value) {
-        this.cOut.forEach(c -> {
-            if (c.active && prev != c.right) {
-                f.accept(c, c.right, value);
-            }
-        });
-        this.cIn.forEach(c -> {
-            if (c.active && prev != c.left) {
-                f.accept(c, c.left, value);
-            }
-        });
-    }
 }
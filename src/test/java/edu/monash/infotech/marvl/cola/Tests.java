@@ -9,6 +9,7 @@ import edu.monash.infotech.marvl.cola.powergraph.LinkTypeAccessor;
 import edu.monash.infotech.marvl.cola.powergraph.Module;
 import edu.monash.infotech.marvl.cola.powergraph.PowerEdge;
 import edu.monash.infotech.marvl.cola.shortestpaths.Calculator;
+import edu.monash.infotech.marvl.cola.shortestpaths.RouteSearch;
 import edu.monash.infotech.marvl.cola.vpsc.*;
 import edu.monash.infotech.marvl.cola.vpsc.Iterator;
 
@@ -22,6 +23,7 @@ import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.*;
 import java.util.stream.Collectors;
 
@@ -195,6 +197,237 @@ public class Tests {
         Assert.assertTrue(true);
     }
 
+    // edges of a w by w grid graph, linking each node to the next in its row and in its column
+    private List<int[]> gridEdges(final int w) {
+        final int n = w * w;
+        final List<int[]> edges = new ArrayList<>();
+        for (int i = 0; i < n; ++i) {
+            if (0 < (i + 1) % w) {
+                edges.add(new int[] {i, i + 1});
+            }
+            if (i + w < n) {
+                edges.add(new int[] {i, i + w});
+            }
+        }
+        return edges;
+    }
+
+    // n random positions in 2D, the same ones on every call
+    private double[][] randomPositions(final int n) {
+        final PseudoRandom rand = new PseudoRandom();
+        final double[][] x = new double[2][n];
+        for (int i = 0; i < n; ++i) {
+            x[0][i] = rand.getNextBetween(0, 10);
+            x[1][i] = rand.getNextBetween(0, 10);
+        }
+        return x;
+    }
+
+    // a copy of 2D positions, for another descent to start from
+    private double[][] copy(final double[][] x) {
+        return new double[][] {x[0].clone(), x[1].clone()};
+    }
+
+    @Test(description = "matrix-free descent")
+    public void matrixFreeDescentTest() {
+        final int n = 30;
+        final List<int[]> links = new ArrayList<>();
+        for (int i = 0; i < n; ++i) {
+            links.add(new int[] {i, (i + 1) % n});
+            links.add(new int[] {i, (i * 7 + 3) % n});
+        }
+        final double[][] D = (new Calculator<>(n, links, l -> l[0], l -> l[1], l -> 1)).DistanceMatrix();
+        final double[][] G = Descent.createSquareMatrix(n, (i, j) -> 2);
+        links.forEach(l -> {
+            G[l[0]][l[1]] = 1;
+            G[l[1]][l[0]] = 1;
+        });
+        final double[][] x0 = this.randomPositions(n);
+        final Descent dense = new Descent(this.copy(x0), D, G);
+        final Descent matrixFree = new Descent(this.copy(x0), D, G, true);
+        Assert.assertNull(matrixFree.H);
+        dense.locks.add(0, new double[] {5, 5});
+        matrixFree.locks.add(0, new double[] {5, 5});
+        Assert.assertEquals(matrixFree.run(20), dense.run(20));
+        Assert.assertEquals(matrixFree.x, dense.x);
+
+        // starting with nodes in coincident pairs, so that rows computed after others move nodes apart that the earlier rows used
+        final double[][] paired = this.copy(x0);
+        for (int i = 1; i < n; i += 2) {
+            paired[0][i] = paired[0][i - 1];
+            paired[1][i] = paired[1][i - 1];
+        }
+        final Descent denseCoincident = new Descent(new double[][] {paired[0].clone(), paired[1].clone()}, D, G);
+        final Descent matrixFreeCoincident = new Descent(new double[][] {paired[0].clone(), paired[1].clone()}, D, G, true);
+        Assert.assertEquals(matrixFreeCoincident.run(20), denseCoincident.run(20));
+        Assert.assertEquals(matrixFreeCoincident.x, denseCoincident.x);
+    }
+
+    @Test(description = "parallel descent")
+    public void parallelDescentTest() {
+        final int n = 40;
+        final List<int[]> links = new ArrayList<>();
+        for (int i = 0; i < n; ++i) {
+            links.add(new int[] {i, (i + 1) % n});
+            links.add(new int[] {i, (i * 5 + 2) % n});
+        }
+        final double[][] D = (new Calculator<>(n, links, l -> l[0], l -> l[1], l -> 1)).DistanceMatrix();
+        final double[][] x0 = this.randomPositions(n);
+        final ForkJoinPool pool1 = new ForkJoinPool(1), pool4 = new ForkJoinPool(4);
+        try {
+            // without coincident nodes the parallel descent takes exactly the same steps as the sequential one
+            final Descent sequential = new Descent(this.copy(x0), D);
+            final Descent parallel = new Descent(this.copy(x0), D, null, true);
+            parallel.pool = pool4;
+            sequential.run(10);
+            parallel.run(10);
+            Assert.assertEquals(parallel.x, sequential.x);
+            Assert.assertEquals(parallel.computeStress(), sequential.computeStress(), 1e-9);
+
+            // starting with all nodes coincident, results do not depend on the number of threads
+            final Descent one = new Descent(new double[][] {new double[n], new double[n]}, D);
+            final Descent four = new Descent(new double[][] {new double[n], new double[n]}, D);
+            one.pool = pool1;
+            four.pool = pool4;
+            final double s1 = one.run(50), s4 = four.run(50);
+            Assert.assertEquals(s4, s1);
+            Assert.assertEquals(four.x, one.x);
+            Assert.assertTrue(s1 < 0.1 * new Descent(new double[][] {new double[n], new double[n]}, D).computeStress());
+        } finally {
+            pool1.shutdown();
+            pool4.shutdown();
+        }
+    }
+
+    @Test(description = "sparse stress")
+    public void sparseStressTest() {
+        final int w = 8, n = w * w;
+        final List<int[]> edges = this.gridEdges(w);
+
+        // with every node a pivot, the sparse model has the same terms as full stress
+        final double[][] D = (new Calculator<>(n, edges, l -> l[0], l -> l[1], l -> 1)).DistanceMatrix();
+        final double[][] x0 = this.randomPositions(n);
+        final Descent full = new Descent(this.copy(x0), D);
+        final SparseDescent sparse = new SparseDescent(this.copy(x0), edges, l -> l[0], l -> l[1],
+                                                       l -> 1, n);
+        full.run(10);
+        sparse.run(10);
+        for (int i = 0; i < n; ++i) {
+            Assert.assertEquals(sparse.x[0][i], full.x[0][i], 1e-6);
+            Assert.assertEquals(sparse.x[1][i], full.x[1][i], 1e-6);
+        }
+
+        // with a few pivots, Layout.start gives much the same edge lengths as with full stress
+        final double[] fullLengths = this.gridLayoutEdgeLengths(edges, 0);
+        final double[] sparseLengths = this.gridLayoutEdgeLengths(edges, 8);
+        final double fullMean = Arrays.stream(fullLengths).average().getAsDouble();
+        final double sparseMean = Arrays.stream(sparseLengths).average().getAsDouble();
+        Assert.assertEquals(sparseMean, fullMean, 0.1 * fullMean);
+        Assert.assertTrue(Arrays.stream(sparseLengths).allMatch(l -> Math.abs(l - sparseMean) < 0.3 * sparseMean));
+    }
+
+    private double[] gridLayoutEdgeLengths(final List<int[]> edges, final int pivots) {
+        final List<GraphNode> nodes = new ArrayList<>();
+        final int n = 1 + edges.stream().mapToInt(e -> Math.max(e[0], e[1])).max().getAsInt();
+        for (int i = 0; i < n; ++i) {
+            nodes.add(new GraphNode());
+        }
+        final List<Link> links = edges.stream().map(e -> new Link(e[0], e[1])).collect(Collectors.toList());
+        CoLa.adaptor().nodes(nodes).links(links).linkDistance(10.0).sparseStress(pivots).start(50, 0, 50, 0, false);
+        return links.stream().mapToDouble(l -> nodeDistance((GraphNode)l.source, (GraphNode)l.target)).toArray();
+    }
+
+    @Test(description = "stochastic gradient descent")
+    public void stochasticDescentTest() {
+        final int w = 8, n = w * w;
+        final List<int[]> edges = this.gridEdges(w);
+        final double[][] D = (new Calculator<>(n, edges, l -> l[0], l -> l[1], l -> 1)).DistanceMatrix();
+        final double[][] x0 = this.randomPositions(n);
+        final Descent descent = new Descent(this.copy(x0), D);
+        descent.run(100);
+        final StochasticDescent sgd = new StochasticDescent(this.copy(x0), D);
+        sgd.locks.add(0, new double[] {1, 2});
+        sgd.run(30);
+        Assert.assertTrue(sgd.computeStress() < 1.05 * descent.computeStress());
+        Assert.assertEquals(sgd.x[0][0], 1.0);
+        Assert.assertEquals(sgd.x[1][0], 2.0);
+    }
+
+    @Test(description = "multilevel layout")
+    public void multilevelTest() {
+        final int w = 20, n = w * w;
+        final List<GraphNode> nodes = new ArrayList<>();
+        for (int i = 0; i < n; ++i) {
+            nodes.add(new GraphNode());
+        }
+        final List<int[]> edges = this.gridEdges(w);
+        final List<Link> links = edges.stream().map(e -> new Link(e[0], e[1])).collect(Collectors.toList());
+        final Multilevel multilevel = new Multilevel();
+        CoLa.adaptor().nodes(nodes).links(links).linkDistance(10.0).multilevel(multilevel).handleDisconnected(false)
+            .start(5, 0, 0, 0, false);
+        Assert.assertTrue(2 < multilevel.timings.size());
+        Assert.assertEquals(multilevel.timings.get(multilevel.timings.size() - 1).nodes, n);
+
+        // a grid laid out well has its corners far apart
+        final double diagonal = nodeDistance(nodes.get(0), nodes.get(n - 1));
+        Assert.assertTrue(diagonal > 0.8 * 10 * (w - 1) * Math.sqrt(2), "diagonal = " + diagonal);
+
+        // a node given a position keeps it, and the others are placed around it
+        nodes.forEach(v -> v.x = v.y = Double.NaN);
+        nodes.get(0).x = nodes.get(0).y = -1000;
+        CoLa.adaptor().nodes(nodes).links(links).linkDistance(10.0).multilevel(new Multilevel()).handleDisconnected(false)
+            .start(0, 0, 0, 0, false);
+        Assert.assertEquals(nodes.get(0).x, -1000.0);
+        Assert.assertEquals(nodes.get(0).y, -1000.0);
+        Assert.assertTrue(nodeDistance(nodes.get(0), nodes.get(1)) < 0.5 * nodeDistance(nodes.get(0), nodes.get(n - 1)));
+
+        // fixed nodes are not moved
+        final int m = edges.size();
+        final int[] sources = new int[m], targets = new int[m];
+        final double[] lengths = new double[m];
+        for (int i = 0; i < m; ++i) {
+            sources[i] = edges.get(i)[0];
+            targets[i] = edges.get(i)[1];
+            lengths[i] = 10;
+        }
+        final boolean[] fixed = new boolean[n], hasPosition = new boolean[n];
+        fixed[0] = hasPosition[0] = true;
+        final double[] x = new double[n], y = new double[n];
+        x[0] = y[0] = -100;
+        multilevel.layout(sources, targets, lengths, fixed, new int[n], x, y, hasPosition);
+        Assert.assertEquals(x[0], -100.0);
+        Assert.assertEquals(y[0], -100.0);
+        Assert.assertTrue(nodeDistance(new GraphNode(x[0], y[0], 0, 0), new GraphNode(x[1], y[1], 0, 0)) < 30);
+
+        // the two nodes of a contracted pair are prolonged to the length of the edge between them apart
+        final Multilevel pair = new Multilevel();
+        pair.minNodes = 1;
+        final double[] px = new double[2], py = new double[2];
+        pair.layout(new int[] {0}, new int[] {1}, new double[] {10}, new boolean[2], new int[2], px, py, new boolean[2]);
+        Assert.assertEquals(pair.timings.size(), 2);
+        Assert.assertEquals(nodeDistance(new GraphNode(px[0], py[0], 0, 0), new GraphNode(px[1], py[1], 0, 0)), 10, 1e-9);
+    }
+
+    @Test(description = "pivot MDS initial placement")
+    public void pivotMDSTest() {
+        final int w = 20, n = w * w;
+        final List<GraphNode> nodes = new ArrayList<>();
+        for (int i = 0; i < n; ++i) {
+            nodes.add(new GraphNode());
+        }
+        final List<Link> links = this.gridEdges(w).stream().map(e -> new Link(e[0], e[1])).collect(Collectors.toList());
+        CoLa.adaptor().nodes(nodes).links(links).linkDistance(10.0).pivotMDS(10).handleDisconnected(false).start(0, 0, 0, 0, false);
+
+        // with no descent at all, a grid is already unfolded with links close to their ideal length
+        final double diagonal = nodeDistance(nodes.get(0), nodes.get(n - 1));
+        Assert.assertTrue(diagonal > 0.9 * 10 * (w - 1) * Math.sqrt(2), "diagonal = " + diagonal);
+        double mean = 0;
+        for (final Link l : links) {
+            mean += nodeDistance((GraphNode)l.source, (GraphNode)l.target) / links.size();
+        }
+        Assert.assertEquals(mean, 10, 1);
+    }
+
     @Test(description = "group")
     public void groupTest() {
         final LayoutAdaptor d3cola = CoLa.adaptor();
@@ -234,8 +467,8 @@ public class Tests {
             d3cola
                     .nodes(nodes)
                     .links(links)
-                    .constraints(Arrays.asList(new Constraint("separation", "x", 0, 1, 0, true),
-                                               new Constraint("separation", "y", 0, 2, 0, true)));
+                    .constraints(Arrays.asList(new Constraint(ConstraintType.separation, ConstraintAxis.x, 0, 1, 0, true),
+                                               new Constraint(ConstraintType.separation, ConstraintAxis.y, 0, 2, 0, true)));
             d3cola.start(20, 20, 20);
             Assert.assertTrue(0.001 > Math.abs(nodes.get(0).x - nodes.get(1).x));
             Assert.assertTrue(0.001 > Math.abs(nodes.get(0).y - nodes.get(2).y));
@@ -495,9 +728,7 @@ public class Tests {
     //  - to route each edge the weights of the edges are adjusted such that those inside obstacles
     //    have infinite weight while those inside the source and target node have zero weight
     //  - augment dijkstra with a cost for bends
-    @Test(description = "grid router")
-    public void gridRouterTest() {
-
+    private List<TetrisNode> tetrisNodes() throws IOException {
         try (final InputStream stream = getClass().getResourceAsStream("/tetrisbugmultiedgeslayout.json")) {
             final ObjectMapper mapper = new ObjectMapper();
             final JsonNode graph = mapper.readTree(stream);
@@ -522,7 +753,14 @@ public class Tests {
 
                 nodes.add(tetrisNode);
             }
+            return nodes;
+        }
+    }
 
+    @Test(description = "grid router")
+    public void gridRouterTest() {
+        try {
+            final List<TetrisNode> nodes = this.tetrisNodes();
             final GridRouter<TetrisNode> gridrouter = new GridRouter<>(nodes, new TetrisNodeAccessor());
             final TriConsumer<Integer, Integer, Integer> check = (expected, source, target) -> {
                 Assert.assertEquals(gridrouter.obstacles.size(), expected.intValue());
@@ -563,6 +801,182 @@ public class Tests {
         Assert.assertTrue(true);
     }
 
+    @Test(description = "grid router assigns crossings to the front most node under them")
+    public void gridRouterCrossingsTest() {
+        final PseudoRandom rand = new PseudoRandom();
+        final List<TetrisNode> nodes = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            final TetrisNode v = new TetrisNode();
+            v.bounds = new TetrisBounds();
+            v.bounds.x = 20 * (int)(rand.getNext() * 40);
+            v.bounds.X = v.bounds.x + 10 + rand.getNext() * 30;
+            v.bounds.y = 20 * (int)(rand.getNext() * 40);
+            v.bounds.Y = v.bounds.y + 10 + rand.getNext() * 30;
+            v.children = new ArrayList<>();
+            nodes.add(v);
+        }
+        for (int g = 0; g < 3; g++) {
+            final TetrisNode group = new TetrisNode();
+            group.children = new ArrayList<>(Arrays.asList(10 * g, 10 * g + 1, 10 * g + 2));
+            nodes.add(group);
+        }
+        final TetrisNode outer = new TetrisNode();
+        outer.children = new ArrayList<>(Collections.singletonList(nodes.size() - 1));
+        nodes.add(outer);
+
+        final GridRouter<TetrisNode> gridrouter = new GridRouter<>(nodes, new TetrisNodeAccessor());
+        for (final Vert p : gridrouter.verts) {
+            if (gridrouter.nodes.stream().anyMatch(v -> v.ports.contains(p))) {
+                Assert.assertTrue(p.node.ports.contains(p));
+                continue;
+            }
+            // a crossing, which belongs to the last node in back to front order that it is strictly inside
+            NodeWrapper expected = null;
+            for (final NodeWrapper v : gridrouter.backToFront) {
+                if (Math.abs(p.x - v.rect.cx()) < v.rect.width() / 2 && Math.abs(p.y - v.rect.cy()) < v.rect.height() / 2) {
+                    expected = v;
+                }
+            }
+            Assert.assertEquals(p.node, expected);
+        }
+        // ports are on the sides of their nodes
+        gridrouter.nodes.forEach(v -> v.ports.forEach(p -> {
+            final Rectangle r = v.rect;
+            Assert.assertTrue(1e-9 > Math.min(Math.min(Math.abs(p.x - r.x), Math.abs(p.x - r.X)),
+                                              Math.min(Math.abs(p.y - r.y), Math.abs(p.y - r.Y))));
+        }));
+    }
+
+    @Test(description = "grid router routes edges in parallel")
+    public void gridRouterParallelTest() {
+        try {
+            final List<TetrisNode> nodes = this.tetrisNodes();
+            final GridRouter<TetrisNode> gridrouter = new GridRouter<>(nodes, new TetrisNodeAccessor());
+            final List<LinkWrapper> edges = new ArrayList<>();
+            for (int i = 0; i < nodes.size(); i++) {
+                for (int j = i + 1; j < nodes.size(); j++) {
+                    if (gridrouter.nodes.get(i).leaf && gridrouter.nodes.get(j).leaf) {
+                        edges.add(new LinkWrapper(i, j, 0));
+                    }
+                }
+            }
+            final Function<List<List<Segment>>, List<String>> points = routes -> routes.stream().map(
+                    r -> r.stream().map(seg -> seg.p0.x + "," + seg.p0.y + " " + seg.p1.x + "," + seg.p1.y)
+                          .collect(Collectors.joining(" "))).collect(Collectors.toList());
+            final List<String> sequential = points.apply(gridrouter.routeEdges(edges, 5, e -> e.source, e -> e.target));
+            gridrouter.pool = new ForkJoinPool(4);
+            final List<String> parallel;
+            try {
+                parallel = points.apply(gridrouter.routeEdges(edges, 5, e -> e.source, e -> e.target));
+            } finally {
+                gridrouter.pool.shutdown();
+            }
+            Assert.assertEquals(parallel, sequential);
+        } catch (IOException e) {
+            log.error("IOException in gridRouterParallelTest", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test(description = "grid router A* search finds routes as cheap as the uninformed search, expanding fewer entries")
+    public void gridRouterAStarTest() {
+        final PseudoRandom rand = new PseudoRandom();
+        // nodes spread over a larger grid than the tetris layout, one in each of some of the cells of a 10 by 10 grid
+        final List<TetrisNode> spread = new ArrayList<>();
+        for (int c = 0; c < 100; c++) {
+            if (0.4 > rand.getNext()) {
+                final TetrisNode v = new TetrisNode();
+                v.bounds = new TetrisBounds();
+                v.bounds.x = 60 * (c % 10) + rand.getNext() * 10;
+                v.bounds.X = v.bounds.x + 10 + rand.getNext() * 30;
+                v.bounds.y = 60 * (c / 10) + rand.getNext() * 10;
+                v.bounds.Y = v.bounds.y + 10 + rand.getNext() * 30;
+                v.children = new ArrayList<>();
+                spread.add(v);
+            }
+        }
+        // routes are only found between nodes neither of which is inside the other
+        final BiPredicate<NodeWrapper, NodeWrapper> inside = (a, b) -> {
+            for (NodeWrapper u = a.parent; null != u; u = u.parent) {
+                if (u == b) {
+                    return true;
+                }
+            }
+            return false;
+        };
+
+        try {
+            for (final List<TetrisNode> nodes : Arrays.asList(this.tetrisNodes(), spread)) {
+                final GridRouter<TetrisNode> gridrouter = new GridRouter<>(nodes, new TetrisNodeAccessor());
+                final RouteSearch search = new RouteSearch(gridrouter.graph);
+                long informed = 0, uninformed = 0;
+                for (final NodeWrapper source : gridrouter.nodes) {
+                    for (final NodeWrapper target : gridrouter.nodes) {
+                        if (source == target || inside.test(source, target) || inside.test(target, source)) {
+                            continue;
+                        }
+                        gridrouter.route(source.id, target.id);
+                        gridrouter.prepare(search, source, target, gridrouter.obstacles);
+                        final int start = source.ports.get(0).id, end = target.ports.get(0).id;
+                        final RouteSearch.TurnCost bendPenalty = gridrouter.bendPenalty(source, target);
+                        search.path(start, end, bendPenalty);
+                        final double cost = search.cost;
+                        uninformed += search.expanded;
+                        search.path(start, end, bendPenalty, gridrouter.toTarget(source, target));
+                        informed += search.expanded;
+                        Assert.assertEquals(search.cost, cost, 1e-6);
+                    }
+                }
+                Assert.assertTrue(2 * informed < uninformed);
+            }
+        } catch (IOException e) {
+            log.error("IOException in gridRouterAStarTest", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test(description = "path index finds the same common subpaths as longest common subsequence")
+    public void pathIndexTest() {
+        final PseudoRandom rand = new PseudoRandom();
+        final List<Vert> verts = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            verts.add(new Vert(i, i, 0));
+        }
+        // short paths over few vertices, so that they share runs both ways and revisit vertices
+        final List<GridPath<Vert>> paths = new ArrayList<>();
+        for (int p = 0; p < 40; p++) {
+            final GridPath<Vert> path = new GridPath<>();
+            final int length = 1 + (int)(rand.getNext() * 8) % 8;
+            for (int k = 0; k < length; k++) {
+                path.add(verts.get((int)(rand.getNext() * verts.size()) % verts.size()));
+            }
+            paths.add(path);
+        }
+        final PathIndex index = new PathIndex(paths);
+        for (int i = 0; i < paths.size() - 1; i++) {
+            final List<Integer> sharing = new ArrayList<>();
+            for (final int j : index.select(i)) {
+                sharing.add(j);
+                final GridPath<Vert> e = paths.get(i), f = paths.get(j);
+                final LongestCommonSubsequence<Vert> expected = new LongestCommonSubsequence<>(e, f),
+                        actual = index.commonSubpath(e, j);
+                Assert.assertEquals(actual.length, expected.length);
+                Assert.assertEquals(actual.si, expected.si);
+                Assert.assertEquals(actual.ti, expected.ti);
+                Assert.assertEquals(actual.reversed, expected.reversed);
+                if (expected.reversed) {
+                    Collections.reverse(f);
+                    index.reverse(j);
+                }
+            }
+            for (int j = i + 1; j < paths.size(); j++) {
+                if (!sharing.contains(j)) {
+                    Assert.assertEquals(new LongestCommonSubsequence<>(paths.get(i), paths.get(j)).length, 0);
+                }
+            }
+        }
+    }
+
     @Test(description = "shortest path with bends")
     public void shortestPathWithBendsTest() {
         //  0 - 1 - 2
@@ -583,7 +997,55 @@ public class Tests {
         };
         Calculator<int[]> sp = new Calculator<>(nodes.size(), edges, source, target, length);
         List<Integer> path = sp.PathFromNodeToNodeWithPrevCost(0, 4, prevCost);
-        Assert.assertTrue(true);
+        Assert.assertEquals(path, Arrays.asList(2, 1, 0));
+        // the working state kept from one search must not leak into the next
+        Assert.assertEquals(sp.PathFromNodeToNodeWithPrevCost(4, 0, prevCost), Arrays.asList(1, 2, 4));
+        Assert.assertEquals(sp.PathFromNodeToNodeWithPrevCost(0, 4, prevCost), path);
+    }
+
+    @Test(description = "route search with blocked nodes and extra links")
+    public void routeSearchTest() {
+        // a k by k grid with unit links, in which the search is reused for each trial
+        final int k = 8, n = k * k;
+        final List<int[]> edges = new ArrayList<>();
+        for (int i = 0; i < k; i++) {
+            for (int j = 0; j < k; j++) {
+                if (i < k - 1) {
+                    edges.add(new int[] {i * k + j, (i + 1) * k + j});
+                }
+                if (j < k - 1) {
+                    edges.add(new int[] {i * k + j, i * k + j + 1});
+                }
+            }
+        }
+        final ToIntFunction<int[]> source = e -> e[0], target = e -> e[1];
+        final ToDoubleFunction<int[]> length = e -> 2 < e.length ? 0 : 1;
+        final RouteSearch search = new RouteSearch(new CsrGraph(n, edges, source, target, length));
+        final RouteSearch.TurnCost turnCost = (u, v, w) -> u / k != w / k && u % k != w % k ? 1000 : 0;
+        final PseudoRandom rand = new PseudoRandom();
+        final IntSupplier randomNode = () -> (int)(rand.getNext() * n) % n;
+        for (int trial = 0; trial < 20; trial++) {
+            final int start = randomNode.getAsInt(), end = randomNode.getAsInt();
+            final boolean[] blocked = new boolean[n];
+            search.reset();
+            for (int b = 0; b < n / 4; b++) {
+                final int u = randomNode.getAsInt();
+                if (u != start && u != end) {
+                    blocked[u] = true;
+                    search.block(u);
+                }
+            }
+            // the same graph built from scratch for the calculator: unblocked links, then the extra links
+            final List<int[]> passable = edges.stream().filter(e -> !blocked[e[0]] && !blocked[e[1]]).collect(Collectors.toList());
+            for (int l = 0; l < 3; l++) {
+                final int u = randomNode.getAsInt(), v = (u + 1 + randomNode.getAsInt() % (n - 1)) % n;
+                search.link(u, v);
+                passable.add(new int[] {u, v, 0});
+            }
+            final List<Integer> expected = new Calculator<>(n, passable, source, target, length).PathFromNodeToNodeWithPrevCost(
+                    start, end, (u, v, w) -> turnCost.cost(u, v, w));
+            Assert.assertEquals(search.path(start, end, turnCost), expected);
+        }
     }
 
     @Test(description = "tangent visibility graph")
@@ -774,6 +1236,50 @@ public class Tests {
         Assert.assertEquals(cnt, 6);
     }
 
+    @Test(description = "indexed heap test")
+    public void indexedHeapTest() {
+        final IndexedHeap q = new IndexedHeap(2);
+        final double[] keys = {42, 5, 23, 5, Math.PI, 13};
+        for (int i = 0; i < keys.length; ++i) {
+            q.push(i, keys[i]);
+        }
+        Assert.assertEquals(q.count(), 6);
+        q.decreaseKey(5, 2);
+        Assert.assertEquals(q.pop(), 5);
+        Assert.assertEquals(q.pop(), 4);
+        // equal keys come out lowest item first
+        Assert.assertEquals(q.pop(), 1);
+        Assert.assertEquals(q.pop(), 3);
+        Assert.assertFalse(q.contains(3));
+        Assert.assertTrue(q.contains(2));
+        q.clear();
+        Assert.assertTrue(q.empty());
+
+        final PseudoRandom rand = new PseudoRandom();
+        final int n = 1000;
+        final double[] expected = new double[n];
+        for (int i = 0; i < n; ++i) {
+            q.push(i, expected[i] = rand.getNext());
+        }
+        for (int i = 0; i < n; i += 3) {
+            q.decreaseKey(i, expected[i] /= 2);
+        }
+        for (int i = 1; i < n; i += 3) {
+            q.update(i, expected[i] += 0.5);
+        }
+        for (int i = 2; i < n; i += 30) {
+            q.remove(i);
+            Assert.assertFalse(q.contains(i));
+        }
+        Assert.assertEquals(q.count(), n - 34);
+        double last = Double.NEGATIVE_INFINITY;
+        while (!q.empty()) {
+            final double d = q.key(q.pop());
+            Assert.assertTrue(last <= d);
+            last = d;
+        }
+    }
+
     @Test(description = "dijkstra")
     public void dijkstraTest() {
         // 0  4-3
@@ -797,6 +1303,94 @@ public class Tests {
         });
     }
 
+    @Test(description = "parallel all-pairs shortest paths")
+    public void parallelDistanceMatrixTest() {
+        final PseudoRandom rand = new PseudoRandom();
+        final int n = 300;
+        final List<double[]> links = new ArrayList<>();
+        for (int i = 1; i < n; ++i) {
+            links.add(new double[] {i, (int)(rand.getNext() * i), 1 + rand.getNext()});
+            links.add(new double[] {i, (int)(rand.getNext() * i), 1 + rand.getNext()});
+        }
+        final Calculator<double[]> calc = new Calculator<>(n, links, l -> (int)l[0], l -> (int)l[1], l -> l[2]);
+        final double[][] D = calc.DistanceMatrix();
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Assert.assertEquals(calc.DistanceMatrix(pool), D);
+        } finally {
+            pool.shutdown();
+        }
+        Assert.assertEquals(calc.DistancesFromNode(7), D[7]);
+    }
+
+    @Test(description = "breadth first search for uniform link lengths")
+    public void uniformLengthDistanceTest() {
+        final PseudoRandom rand = new PseudoRandom();
+        final int n = 200;
+        final List<int[]> links = new ArrayList<>();
+        for (int i = 1; i < n; ++i) {
+            links.add(new int[] {i, (int)(rand.getNext() * i)});
+            links.add(new int[] {i, (int)(rand.getNext() * i)});
+        }
+        final double[][] D = (new Calculator<>(n, links, l -> l[0], l -> l[1], l -> 0.1)).DistanceMatrix();
+
+        // an extra edge of a different length, away from the rest of the graph, forces Dijkstra
+        final List<int[]> mixed = new ArrayList<>(links);
+        mixed.add(new int[] {n, n + 1});
+        final double[][] expected = (new Calculator<>(n + 2, mixed, l -> l[0], l -> l[1], l -> l[0] < n ? 0.1 : 1)).DistanceMatrix();
+        for (int i = 0; i < n; ++i) {
+            Assert.assertEquals(D[i], Arrays.copyOf(expected[i], n));
+        }
+    }
+
+    @Test(description = "compressed sparse row graph")
+    public void csrGraphTest() {
+        // 0-1-2  3-4  5
+        final List<int[]> links = Arrays.asList(new int[] {1, 2}, new int[] {0, 1}, new int[] {3, 4});
+        final CsrGraph graph = new CsrGraph(6, links, l -> l[0], l -> l[1], l -> 2);
+        Assert.assertEquals(graph.offsets, new int[] {0, 1, 3, 4, 5, 6, 6});
+        Assert.assertEquals(graph.targets, new int[] {1, 2, 0, 1, 4, 3});
+        Assert.assertEquals(graph.edges, new int[] {1, 0, 1, 0, 2, 2});
+        Assert.assertEquals(graph.degree(1), 2);
+
+        final List<GraphNode> nodes = new ArrayList<>();
+        for (int i = 0; i < 6; ++i) {
+            final GraphNode v = new GraphNode();
+            v.index = i;
+            nodes.add(v);
+        }
+        final List<Graph> components = new HandleDisconnected().separateGraphs(nodes, graph);
+        Assert.assertEquals(components.size(), 3);
+        Assert.assertEquals(components.get(0).array, Arrays.asList(nodes.get(0), nodes.get(1), nodes.get(2)));
+        Assert.assertEquals(components.get(1).array, Arrays.asList(nodes.get(3), nodes.get(4)));
+        Assert.assertEquals(components.get(2).array, Arrays.asList(nodes.get(5)));
+
+        // indices are only keys: sparse and out of list order, and the graph may route through nodes missing from the list
+        final List<GraphNode> keyed = Arrays.asList(new GraphNode(), new GraphNode(), new GraphNode(), new GraphNode());
+        keyed.get(0).index = 7;
+        keyed.get(1).index = 2;
+        keyed.get(2).index = 4;
+        keyed.get(3).index = 0;
+        final GraphNode hidden = new GraphNode();
+        hidden.index = 9;
+        final List<Graph> keyedComponents = new HandleDisconnected().separateGraphs(keyed, Arrays.asList(
+                new Link(keyed.get(0), keyed.get(2)), new Link(keyed.get(1), hidden), new Link(hidden, keyed.get(3))));
+        Assert.assertEquals(keyedComponents.size(), 2);
+        Assert.assertEquals(keyedComponents.get(0).array, Arrays.asList(keyed.get(0), keyed.get(2)));
+        Assert.assertEquals(keyedComponents.get(1).array, Arrays.asList(keyed.get(1), keyed.get(3)));
+
+        final List<Link> lengths = Arrays.asList(new Link(0, 1), new Link(1, 2), new Link(1, 3), new Link(2, 3));
+        LinkLengths.symmetricDiffLinkLengths(lengths, new LinkLengthAccessor<Link>() {
+            public int getSourceIndex(final Link l) { return (Integer)l.source; }
+            public int getTargetIndex(final Link l) { return (Integer)l.target; }
+            public void setLength(final Link l, final double value) { l.length = value; }
+        });
+        // neighbours of 0: {1}, of 1: {0, 2, 3}, so the symmetric difference is {0, 2, 3, 1}
+        Assert.assertEquals(lengths.get(0).length, 3.0);
+        // neighbours of 2: {1, 3}, of 3: {1, 2}, so {3, 2}
+        Assert.assertEquals(lengths.get(3).length, 1 + Math.sqrt(2));
+    }
+
     @Test(description = "vpsc")
     public void vpscTest() {
         final BiFunction<Double, Integer, Double> round = (v, p) -> {
@@ -868,6 +1462,299 @@ public class Tests {
         }
     }
 
+    @Test(description = "warm started vpsc")
+    public void vpscResumeTest() {
+        final PseudoRandom rand = new PseudoRandom();
+        final int n = 50;
+        final List<Variable> vs = new ArrayList<>(), coldVs = new ArrayList<>();
+        for (int i = 0; i < n; ++i) {
+            final double d = rand.getNext() * 100;
+            vs.add(new Variable(d));
+            coldVs.add(new Variable(d));
+        }
+        final List<Constraint> xs = new ArrayList<>(), ys = new ArrayList<>(), coldXs = new ArrayList<>();
+        for (int i = 0; i < 2 * n; ++i) {
+            final int u = (int)(rand.getNext() * n), v = (int)(rand.getNext() * n);
+            final double gap = 1 + rand.getNext() * 5;
+            if (u < v) {
+                xs.add(new Constraint(vs.get(u), vs.get(v), gap));
+                coldXs.add(new Constraint(coldVs.get(u), coldVs.get(v), gap));
+            } else if (u > v) {
+                ys.add(new Constraint(vs.get(u), vs.get(v), gap));
+            }
+        }
+        final Solver x = new Solver(vs, xs);
+        x.solve();
+        for (int step = 0; step < 5; ++step) {
+            // another solver over the same variables in between, as for the other axis in a projection
+            new Solver(vs, ys).solve();
+
+            final double[] desired = new double[n];
+            for (int i = 0; i < n; ++i) {
+                desired[i] = vs.get(i).desiredPosition + (rand.getNext() - 0.5) * 10;
+            }
+            x.setDesiredPositions(desired);
+            x.resume();
+
+            final Solver cold = new Solver(coldVs, coldXs);
+            cold.setDesiredPositions(desired);
+            cold.solve();
+            for (int i = 0; i < n; ++i) {
+                Assert.assertEquals(vs.get(i).position(), coldVs.get(i).position(), 0.01);
+            }
+            for (final Constraint c : xs) {
+                Assert.assertTrue(-0.0001 < c.slack());
+            }
+        }
+    }
+
+    @Test(description = "vpsc fixed and bounded variables")
+    public void vpscFixedAndBoundsTest() {
+        final List<Variable> vs = Arrays.asList(new Variable(5), new Variable(0), new Variable(-5), new Variable(10), new Variable(-10));
+        vs.get(1).fixed = true;
+        vs.get(3).upperBound = 3;
+        vs.get(4).lowerBound = -2;
+        final List<Constraint> cs = Arrays.asList(new Constraint(vs.get(0), vs.get(1), 1), new Constraint(vs.get(1), vs.get(2), 1),
+                                                  new Constraint(vs.get(4), vs.get(3), 1));
+        final Solver solver = new Solver(vs, cs);
+        solver.solve();
+        // the fixed variable does not move however hard its neighbours pull
+        Assert.assertEquals(vs.get(1).position(), 0.0);
+        Assert.assertEquals(vs.get(0).position(), -1, 1e-9);
+        Assert.assertEquals(vs.get(2).position(), 1, 1e-9);
+        Assert.assertEquals(vs.get(3).position(), 3, 1e-9);
+        Assert.assertEquals(vs.get(4).position(), -2, 1e-9);
+
+        // bounds are read again on resume
+        vs.get(3).upperBound = 4;
+        vs.get(4).lowerBound = Double.NEGATIVE_INFINITY;
+        solver.resume();
+        Assert.assertEquals(vs.get(3).position(), 4, 1e-9);
+        Assert.assertEquals(vs.get(4).position(), -10, 1e-9);
+
+        // a bound set after the first solve is applied, and one cleared again no longer holds its variable
+        final List<Variable> late = Arrays.asList(new Variable(0), new Variable(10));
+        final Constraint lc = new Constraint(late.get(0), late.get(1), 1);
+        final Solver lateSolver = new Solver(late, Collections.singletonList(lc));
+        lateSolver.solve();
+        late.get(0).lowerBound = 2;
+        lateSolver.resume();
+        Assert.assertEquals(late.get(0).position(), 2, 1e-9);
+        late.get(0).lowerBound = Double.NEGATIVE_INFINITY;
+        late.get(1).desiredPosition = -10;
+        lateSolver.resume();
+        Assert.assertEquals(late.get(0).position(), -5.5, 1e-9);
+        Assert.assertEquals(late.get(1).position(), -4.5, 1e-9);
+        Assert.assertFalse(Double.isNaN(lc.lm));
+
+        // two fixed variables cannot be pushed apart
+        final List<Variable> pinned = Arrays.asList(new Variable(0), new Variable(0));
+        pinned.forEach(v -> v.fixed = true);
+        final Constraint c = new Constraint(pinned.get(0), pinned.get(1), 1);
+        new Solver(pinned, Collections.singletonList(c)).solve();
+        Assert.assertTrue(c.unsatisfiable);
+        Assert.assertEquals(pinned.get(0).position(), 0.0);
+        Assert.assertEquals(pinned.get(1).position(), 0.0);
+    }
+
+    @Test(description = "vpsc constraint store")
+    public void constraintStoreTest() {
+        final List<Variable> vs = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            vs.add(new Variable(0));
+        }
+        final List<Constraint> cs = Arrays.asList(new Constraint(vs.get(0), vs.get(1), 1),
+                                                  new Constraint(vs.get(2), vs.get(1), 2, true),
+                                                  new Constraint(vs.get(0), vs.get(3), 3));
+        final Solver solver = new Solver(vs, cs);
+        final ConstraintStore store = solver.store;
+        Assert.assertEquals(store.left, new int[] {0, 2, 0});
+        Assert.assertEquals(store.right, new int[] {1, 1, 3});
+        Assert.assertEquals(store.outOffsets, new int[] {0, 2, 2, 3, 3});
+        Assert.assertEquals(store.outConstraints, new int[] {0, 2, 1});
+        Assert.assertEquals(store.inOffsets, new int[] {0, 0, 2, 2, 3});
+        Assert.assertEquals(store.inConstraints, new int[] {0, 1, 2});
+        Assert.assertTrue(store.isEquality(1));
+        Assert.assertFalse(store.isEquality(0));
+
+        solver.solve();
+        for (int i = 0; i < cs.size(); ++i) {
+            Assert.assertEquals(cs.get(i).active, store.isActive(i));
+            Assert.assertEquals(cs.get(i).slack(), store.slack(i));
+            Assert.assertTrue(-0.0001 < cs.get(i).slack());
+        }
+        Assert.assertEquals(vs.get(1).position() - vs.get(2).position(), 2, 1e-9);
+    }
+
+    @Test(description = "vpsc solved by components in parallel")
+    public void componentSolverTest() {
+        final PseudoRandom rand = new PseudoRandom();
+        final int clusters = 20, size = 30, n = clusters * size;
+        final List<Variable> vs = new ArrayList<>(), seqVs = new ArrayList<>();
+        for (int i = 0; i < n; ++i) {
+            final double d = rand.getNext() * 100;
+            vs.add(new Variable(d));
+            seqVs.add(new Variable(d));
+        }
+        // constraints only within each cluster, with a few variables left unconstrained
+        final List<Constraint> cs = new ArrayList<>(), seqCs = new ArrayList<>();
+        for (int i = 0; i < 2 * n; ++i) {
+            final int k = (int)(rand.getNext() * clusters) * size;
+            final int u = k + (int)(rand.getNext() * (size - 1)), v = k + (int)(rand.getNext() * (size - 1));
+            final double gap = 1 + rand.getNext() * 5;
+            if (u < v) {
+                cs.add(new Constraint(vs.get(u), vs.get(v), gap));
+                seqCs.add(new Constraint(seqVs.get(u), seqVs.get(v), gap));
+            }
+        }
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        final ComponentSolver solver = new ComponentSolver(vs, cs, pool);
+        final double cost;
+        try {
+            Assert.assertTrue(solver.solvers.length > clusters);
+            solver.stats = new SolverStats();
+            cost = solver.solve();
+        } finally {
+            pool.shutdown();
+        }
+        final double seqCost = new Solver(seqVs, seqCs).solve();
+        Assert.assertEquals(cost, seqCost, 1e-6);
+        for (int i = 0; i < n; ++i) {
+            Assert.assertEquals(vs.get(i).position(), seqVs.get(i).position(), 1e-9);
+        }
+        for (final Constraint c : cs) {
+            Assert.assertTrue(-0.0001 < c.slack());
+        }
+
+        // each component stops once its own cost has converged, taking as many rounds as it would if solved on its own
+        for (final Solver s : solver.solvers) {
+            final Map<Variable, Variable> copies = new IdentityHashMap<>();
+            s.vs.forEach(v -> copies.put(v, new Variable(v.desiredPosition)));
+            final Solver alone = new Solver(s.vs.stream().map(copies::get).collect(Collectors.toList()),
+                                            s.cs.stream().map(c -> new Constraint(copies.get(c.left), copies.get(c.right), c.gap))
+                                                .collect(Collectors.toList()));
+            alone.stats = new SolverStats();
+            alone.solve();
+            Assert.assertEquals(s.stats.satisfyRounds, alone.stats.satisfyRounds);
+        }
+
+        // a problem that is all one component is given a Solver over the lists themselves
+        final List<Variable> chain = Arrays.asList(new Variable(0), new Variable(0), new Variable(0));
+        final List<Constraint> chainCs = Arrays.asList(new Constraint(chain.get(0), chain.get(1), 1),
+                                                       new Constraint(chain.get(1), chain.get(2), 1));
+        final ComponentSolver single = new ComponentSolver(chain, chainCs);
+        Assert.assertEquals(single.solvers.length, 1);
+        Assert.assertSame(single.solvers[0].vs, chain);
+        Assert.assertSame(single.solvers[0].cs, chainCs);
+    }
+
+    // nodes in three groups of five, plus two at the root, all at the same pseudo random positions each time
+    private Group projectionGroups(final List<GraphNode> nodes, final List<Group> groups) {
+        final PseudoRandom rand = new PseudoRandom();
+        final Group root = new Group(new ArrayList<>(), new ArrayList<>());
+        root.padding = 0;
+        for (int j = 0; j < 3; ++j) {
+            final Group g = new Group(5, new ArrayList<>());
+            for (int i = 0; i < 5; ++i) {
+                final GraphNode v = new GraphNode(rand.getNext() * 100, rand.getNext() * 100, 10, 10);
+                v.index = nodes.size();
+                nodes.add(v);
+                g.leaves.add(v);
+            }
+            groups.add(g);
+            root.groups.add(g);
+        }
+        for (int i = 0; i < 2; ++i) {
+            final GraphNode v = new GraphNode(rand.getNext() * 100, rand.getNext() * 100, 10, 10);
+            v.index = nodes.size();
+            nodes.add(v);
+            root.leaves.add(v);
+        }
+        return root;
+    }
+
+    @Test(description = "cached group constraints give the same projection as generating them afresh")
+    public void groupConstraintsCacheTest() {
+        final List<GraphNode> nodes = new ArrayList<>(), coldNodes = new ArrayList<>();
+        final List<Group> groups = new ArrayList<>(), coldGroups = new ArrayList<>();
+        final Group root = projectionGroups(nodes, groups), coldRoot = projectionGroups(coldNodes, coldGroups);
+        final int n = nodes.size(), vlen = n + 2 * groups.size();
+        final List<TriConsumer<double[], double[], double[]>> project =
+                new Projection(nodes, groups, root, new ArrayList<>(), true).projectFunctions();
+        final PseudoRandom rand = new PseudoRandom();
+        final double[] x0 = new double[vlen], y0 = new double[vlen], x = new double[vlen], coldX = new double[vlen];
+        for (int i = 0; i < n; ++i) {
+            x0[i] = x[i] = coldX[i] = nodes.get(i).x;
+            y0[i] = nodes.get(i).y;
+        }
+        for (int step = 0; step < 10; ++step) {
+            project.get(0).accept(x0, y0, x);
+            // a new projection each step generates its constraints from scratch and solves cold
+            new Projection(coldNodes, coldGroups, coldRoot, new ArrayList<>(), true).projectFunctions().get(0).accept(x0, y0, coldX);
+            for (int i = 0; i < vlen; ++i) {
+                Assert.assertEquals(x[i], coldX[i], 1e-3);
+            }
+            for (int i = 0; i < n; ++i) {
+                x0[i] = x[i] + (rand.getNext() - 0.5) * 4;
+                y0[i] += (rand.getNext() - 0.5) * 4;
+            }
+        }
+    }
+
+    @Test(description = "a cached group constraint found unsatisfiable is tried again in the next projection")
+    public void groupConstraintsUnsatisfiableTest() {
+        final GraphNode a = new GraphNode(0, 0, 10, 10), b = new GraphNode(2, 0, 2, 4);
+        final List<GraphNode> nodes = Arrays.asList(a, b);
+        final Group root = new Group(new ArrayList<>(nodes), new ArrayList<>());
+        root.padding = 0;
+        final TriConsumer<double[], double[], double[]> project =
+                new Projection(nodes, new ArrayList<>(), root, new ArrayList<>(), true).projectFunctions().get(0);
+
+        // bounds that leave no room for the overlap constraint between the two nodes
+        a.variable.lowerBound = 0;
+        b.variable.upperBound = 5;
+        final double[] x0 = {0, 2}, y0 = {0, 0}, x = {-5, 20};
+        project.accept(x0, y0, x);
+        Assert.assertEquals(x[0], 0, 1e-9);
+        Assert.assertEquals(x[1], 5, 1e-9);
+
+        // once the bound is gone the same pair of nodes is separated
+        b.variable.upperBound = Double.POSITIVE_INFINITY;
+        x[0] = -5;
+        x[1] = 5;
+        project.accept(x0, y0, x);
+        Assert.assertEquals(x[0], 0, 1e-3);
+        Assert.assertEquals(x[1], 6, 1e-3);
+    }
+
+    @Test(description = "vpsc long chain")
+    public void vpscChainTest() {
+        // a single block of many variables, deeper than a recursive traversal of its constraint tree could go
+        final int n = 3000;
+        final List<Variable> vs = new ArrayList<>(n);
+        final List<Constraint> cs = new ArrayList<>(n);
+        for (int i = 0; i < n; ++i) {
+            vs.add(new Variable(0));
+            if (0 < i) {
+                cs.add(new Constraint(vs.get(i - 1), vs.get(i), 1));
+            }
+        }
+        final Solver solver = new Solver(vs, cs);
+        solver.solve();
+        for (int i = 0; i < n; i += 100) {
+            Assert.assertEquals(vs.get(i).position(), i - (n - 1) / 2.0, 1e-6);
+        }
+
+        // pulling the two ends apart splits the block
+        for (int i = 0; i < n; ++i) {
+            vs.get(i).desiredPosition = i < n / 2 ? -n : n;
+        }
+        solver.resume();
+        Assert.assertFalse(cs.get(n / 2 - 1).active);
+        Assert.assertEquals(vs.get(0).position(), -n - (n / 2 - 1) / 2.0, 1e-6);
+        Assert.assertEquals(vs.get(n - 1).position(), n + (n / 2 - 1) / 2.0, 1e-6);
+    }
+
     @Test(description = "rbtree")
     public void rbtreeTest() {
         final RBTree<Integer> tree = new RBTree<>((a, b) -> { return a - b; });
@@ -917,6 +1804,51 @@ public class Tests {
         Assert.assertEquals(cs.size(), 0);
     }
 
+    // forwards to VPSC's accessor, so that generateConstraints takes the RBTree path rather than OverlapConstraintGenerator
+    private static RectAccessors rbTreeAccessors(final RectAccessors f) {
+        return new RectAccessors() {
+            public double getCentre(final Rectangle r) { return f.getCentre(r); }
+
+            public double getOpen(final Rectangle r) { return f.getOpen(r); }
+
+            public double getClose(final Rectangle r) { return f.getClose(r); }
+
+            public double getSize(final Rectangle r) { return f.getSize(r); }
+
+            public Rectangle makeRect(final double open, final double close, final double center, final double size) {
+                return f.makeRect(open, close, center, size);
+            }
+
+            public void findNeighbours(final Node v, final RBTree<Node> scanline) { f.findNeighbours(v, scanline); }
+        };
+    }
+
+    @Test(description = "overlap constraint generator matches RBTree scanline")
+    public void overlapConstraintGeneratorTest() {
+        final PseudoRandom rand = new PseudoRandom();
+        for (int test = 0; test < 20; ++test) {
+            final int n = 5 + test * 10;
+            final List<Rectangle> rs = new ArrayList<>();
+            for (int i = 0; i < n; ++i) {
+                // whole numbers so that some rectangles share centres and open or close positions
+                final double x = Math.round(rand.getNextBetween(0, 50)), y = Math.round(rand.getNextBetween(0, 50));
+                final double w = 2 * Math.round(rand.getNextBetween(1, 6)), h = 2 * Math.round(rand.getNextBetween(1, 6));
+                rs.add(new Rectangle(x, x + w, y, y + h));
+            }
+            final List<Variable> vs = rs.stream().map(r -> new Variable(r.cx())).collect(Collectors.toList());
+            for (final RectAccessors f : Arrays.asList(VPSC.xRect, VPSC.yRect)) {
+                final List<Constraint> expected = VPSC.generateConstraints(rs, vs, rbTreeAccessors(f), 1e-6);
+                final List<Constraint> actual = VPSC.generateConstraints(rs, vs, f, 1e-6);
+                Assert.assertEquals(actual.size(), expected.size());
+                for (int i = 0; i < actual.size(); ++i) {
+                    Assert.assertSame(actual.get(i).left, expected.get(i).left);
+                    Assert.assertSame(actual.get(i).right, expected.get(i).right);
+                    Assert.assertEquals(actual.get(i).gap, expected.get(i).gap);
+                }
+            }
+        }
+    }
+
     private int overlaps(final List<Rectangle> rs) {
         int cnt = 0;
         for (int i = 0, n = rs.size(); i < n - 1; ++i) {
@@ -955,6 +1887,95 @@ public class Tests {
         Assert.assertEquals(overlaps(rs), 0);
     }
 
+    @Test(description = "batch overlap removal on packed bounds")
+    public void batchRemoveOverlapsTest() {
+        final PseudoRandom rand = new PseudoRandom();
+        final int n = 2000;
+        final double[] bounds = new double[4 * n];
+        for (int i = 0; i < n; ++i) {
+            final double x = rand.getNext() * 2000, y = rand.getNext() * 2000;
+            bounds[4 * i] = x;
+            bounds[4 * i + 1] = x + 5 + rand.getNext() * 20;
+            bounds[4 * i + 2] = y;
+            bounds[4 * i + 3] = y + 5 + rand.getNext() * 10;
+        }
+        final double[] original = bounds.clone();
+        final int[][] clusters = BatchOverlapRemoval.clusters(bounds);
+        Assert.assertTrue(0 < clusters.length);
+        final Set<Integer> clustered = new HashSet<>();
+        for (final int[] cluster : clusters) {
+            Assert.assertTrue(1 < cluster.length);
+            for (final int i : cluster) {
+                clustered.add(i);
+            }
+        }
+
+        final List<Rectangle> rs = new ArrayList<>();
+        for (int i = 0; i < n; ++i) {
+            rs.add(new Rectangle(bounds[4 * i], bounds[4 * i + 1], bounds[4 * i + 2], bounds[4 * i + 3]));
+        }
+        final int before = overlaps(rs);
+
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        final int left;
+        try {
+            // a single round leaves the rectangles that overlapped nothing where they were
+            final double[] once = bounds.clone();
+            BatchOverlapRemoval.removeOverlaps(once, pool, 1);
+            for (int i = 0; i < n; ++i) {
+                if (!clustered.contains(i)) {
+                    Assert.assertEquals(once[4 * i], original[4 * i]);
+                    Assert.assertEquals(once[4 * i + 2], original[4 * i + 2]);
+                }
+            }
+
+            left = VPSC.removeOverlaps(bounds, pool);
+        } finally {
+            pool.shutdown();
+        }
+        rs.clear();
+        for (int i = 0; i < n; ++i) {
+            rs.add(new Rectangle(bounds[4 * i], bounds[4 * i + 1], bounds[4 * i + 2], bounds[4 * i + 3]));
+        }
+        // the rectangles still overlapping another are counted
+        int overlapping = 0;
+        for (int i = 0; i < n; ++i) {
+            for (int j = 0; j < n; ++j) {
+                if (i != j && 0 < rs.get(i).overlapX(rs.get(j)) && 0 < rs.get(i).overlapY(rs.get(j))) {
+                    ++overlapping;
+                    break;
+                }
+            }
+        }
+        Assert.assertEquals(left, overlapping);
+        // VPSC.removeOverlaps does not always remove every overlap (see removeOverlapsTest), but settling the clusters left after the
+        // parallel rounds in one solve leaves fewer than 1 in 25
+        Assert.assertTrue(overlaps(rs) < before / 25, overlaps(rs) + " of " + before);
+    }
+
+    @Test(description = "solver stats")
+    public void solverStatsTest() {
+        // overlapping nodes on a path, so that every projection has work to do
+        final List<GraphNode> nodes = new ArrayList<>();
+        for (int i = 0; i < 6; ++i) {
+            nodes.add(new GraphNode(i, i, 20, 20));
+        }
+        final SolverStats total = new SolverStats(), ticks = new SolverStats();
+        new Layout()
+                .nodes(nodes)
+                .links(Arrays.asList(new Link(0, 1), new Link(1, 2), new Link(2, 3), new Link(3, 4), new Link(4, 5)))
+                .avoidOverlaps(true)
+                .solverStats(total)
+                .on(EventType.tick, e -> ticks.add(e.solverStats))
+                .start(10, 10, 10);
+
+        Assert.assertTrue(0 < total.solves, total.toString());
+        Assert.assertTrue(0 < total.merges, total.toString());
+        Assert.assertTrue(total.satisfyRounds >= total.solves + total.costIterations, total.toString());
+        // the initial iterations are not part of any tick
+        Assert.assertTrue(0 < ticks.solves && ticks.solves < total.solves, ticks.toString());
+    }
+
     @Test(description = "packing")
     public void packingTest() {
         final List<GraphNode> nodes = new ArrayList<>();